@@ -8,4 +8,7 @@
 module MulticoreProgramming {
 	requires java.desktop;
 	requires org.jsoup;
+	requires jdk.httpserver;
+	requires java.management;
+	requires java.net.http;
 }
\ No newline at end of file
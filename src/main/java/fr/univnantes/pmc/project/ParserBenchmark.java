@@ -0,0 +1,107 @@
+package fr.univnantes.pmc.project;
+
+import fr.univnantes.pmc.project.api.ParsedPage;
+import fr.univnantes.pmc.project.tools.Tools;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the two ways of researching a pattern and hyperlinks in Web pages saved on disk: parsing each page into a
+ * Jsoup document, and scanning it in a single pass with the streaming scanner of --streaming.
+ * <p>
+ * The pages are first parsed both ways and the results compared, the pages whose matches or hyperlinks differ are
+ * listed. Then each round parses every page; the first rounds are not measured, so that the JIT compiler has optimized
+ * both parsers, and the median of the other rounds is printed in pages and megabytes of HTML per second.
+ * <p>
+ * Example: java ParserBenchmark Nantes pages/ other.html
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class ParserBenchmark {
+
+    private static final int WARMUP_ROUNDS = 30;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Use : java ParserBenchmark PATTERN FILE_OR_DIRECTORY...");
+            return;
+        }
+        Tools.setRegularExpression(args[0]);
+        List<Path> files = new ArrayList<>();
+        for (String arg : Arrays.copyOfRange(args, 1, args.length)) {
+            try (Stream<Path> paths = Files.walk(Paths.get(arg))) {
+                files.addAll(paths.filter(path -> path.toString().matches(".*\\.html?"))
+                        .sorted().collect(Collectors.toList()));
+            }
+        }
+        String[] pages = new String[files.size()];
+        long bytes = 0;
+        for (int i = 0; i < pages.length; i++) {
+            byte[] content = Files.readAllBytes(files.get(i));
+            bytes += content.length;
+            pages[i] = new String(content, StandardCharsets.UTF_8);
+        }
+        System.out.printf("%d pages, %.2f MB%n", pages.length, bytes / 1e6);
+
+        // Both parsers must find the same matches and hyperlinks
+        int differences = 0;
+        for (int i = 0; i < pages.length; i++) {
+            String address = files.get(i).toUri().toString();
+            ParsedPage dom = Tools.parseHtml(address, address, pages[i], false);
+            ParsedPage scanned = Tools.parseHtml(address, address, pages[i], true);
+            if (!dom.matches().equals(scanned.matches()) || !dom.hrefs().equals(scanned.hrefs())) {
+                differences++;
+                System.out.println("Different results for " + files.get(i));
+            }
+        }
+        System.out.printf("%d pages with different results%n%n", differences);
+
+        System.out.printf("%-10s %12s %12s%n", "parser", "pages/s", "MB/s");
+        for (boolean streaming : new boolean[]{false, true}) {
+            double[] times = new double[ROUNDS];
+            for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+                double time = round(files, pages, streaming);
+                if (round >= 0)
+                    times[round] = time;
+            }
+            Arrays.sort(times);
+            double median = times[ROUNDS / 2];
+            System.out.printf("%-10s %12.0f %12.2f%n", streaming ? "streaming" : "jsoup",
+                    pages.length / median, bytes / 1e6 / median);
+        }
+    }
+
+    /**
+     * Parses every page once
+     *
+     * @param files     the files of the pages
+     * @param pages     the HTML of the pages
+     * @param streaming true to scan the pages, false to parse them into Jsoup documents
+     * @return the time taken in seconds
+     */
+    private static double round(List<Path> files, String[] pages, boolean streaming) {
+        // Counted so that the JIT compiler cannot drop the parsing
+        int found = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < pages.length; i++) {
+            String address = files.get(i).toUri().toString();
+            ParsedPage page = Tools.parseHtml(address, address, pages[i], streaming);
+            found += page.matches().size() + page.hrefs().size();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (found < 0)
+            System.out.println(found);
+        return elapsed / 1e9;
+    }
+}
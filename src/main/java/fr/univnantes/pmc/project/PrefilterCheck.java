@@ -0,0 +1,82 @@
+package fr.univnantes.pmc.project;
+
+import fr.univnantes.pmc.project.api.ParsedPage;
+import fr.univnantes.pmc.project.tools.Tools;
+
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the literal prefilter of the blocks never loses a match: for each expression, a paragraph is searched
+ * through Tools, with both parsers, and the result is compared with Pattern.find on the text of the paragraph.
+ * <p>
+ * The expressions are the escapes whose argument could be mistaken for literal text, followed by the ones given in
+ * argument, each with the text to search.
+ * <p>
+ * Example: java PrefilterCheck "Nante?s Métropole" "Nants Métropole"
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class PrefilterCheck {
+
+    // Expressions and a text each of them matches
+    private static final String[][] CASES = {
+            {"\\x41BC", "ABC"},
+            {"\\x{41}BC", "ABC"},
+            {"\\u0041BC", "ABC"},
+            {"\\0101BC", "ABC"},
+            {"\\caxyz", "!xyz"},
+            {"(?<n>a)\\k<n>", "aa"},
+            {"\\pLab", "xab"},
+            {"\\p{Lu}ab", "Xab"},
+            {"\\N{LATIN CAPITAL LETTER A}BC", "ABC"},
+            {"(a)\\1bc", "aabc"},
+            {"[\\x5D]abc", "]abc"},
+            {"(\\c))abc", "iabc"},
+            {"Nante?s Métropole", "Nants Métropole"},
+            {"\\QNantes\\E+", "Nantesss"},
+    };
+
+    public static void main(String[] args) {
+        if (args.length % 2 != 0) {
+            System.out.println("Use : java PrefilterCheck [PATTERN TEXT]...");
+            return;
+        }
+        int failures = 0;
+        int checked = 0;
+        for (String[] check : CASES) {
+            failures += check(check[0], check[1]);
+            checked++;
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            failures += check(args[i], args[i + 1]);
+            checked++;
+        }
+        System.out.println(checked + " expressions checked, " + failures + " matches lost");
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Searches an expression in a paragraph with both parsers, and compares the results with Pattern.find
+     *
+     * @param regex the regular expression
+     * @param text  the text of the paragraph
+     * @return the number of parsers whose result differs
+     */
+    private static int check(String regex, String text) {
+        boolean expected = Pattern.compile(regex, Pattern.DOTALL).matcher(text).find();
+        Tools.setRegularExpression(regex);
+        String html = "<html><body><p>" + text.replace("&", "&amp;").replace("<", "&lt;") + "</p></body></html>";
+        int failures = 0;
+        for (boolean streaming : new boolean[]{false, true}) {
+            ParsedPage page = Tools.parseHtml("check", "http://localhost/", html, streaming);
+            if (!page.matches().isEmpty() != expected) {
+                System.out.println((streaming ? "streaming" : "jsoup") + ": " + regex + " on \"" + text
+                        + "\" gives " + !expected + " instead of " + expected);
+                failures++;
+            }
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,107 @@
+package fr.univnantes.pmc.project;
+
+import fr.univnantes.pmc.project.tools.ConcurrentQueue;
+import fr.univnantes.pmc.project.tools.QueueType;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of the queues usable by the ThreadPool and WebGrep, with as many producers as consumers.
+ * <p>
+ * Each round moves a fixed number of values from the producers to the consumers; the first rounds are not measured,
+ * so that the JIT compiler has optimized the queues, and the median of the other rounds is printed in millions of
+ * operations (an enqueue or a dequeue) per second. The bounded queues are given enough room for a few values per
+ * producer only, so that they are also measured while full. A consumer finding the queue empty yields, so that on a
+ * machine with few cores it leaves the CPU to the producers rather than spinning until the end of its time slice.
+ * <p>
+ * By default, the queues are measured from 1 to 32 pairs, that is 2 to 64 threads.
+ * <p>
+ * Example: java QueueBenchmark 1,2,4,8 1000000
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class QueueBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final int RING_CAPACITY = 1024;
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] pairs = Arrays.stream((args.length > 0 ? args[0] : "1,2,4,8,16,32").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int values = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        System.out.printf("%-14s %6s %12s%n", "queue", "pairs", "Mops/s");
+        for (int p : pairs) {
+            for (QueueType type : QueueType.values()) {
+                double[] throughputs = new double[ROUNDS];
+                for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+                    double throughput = round(type.create(RING_CAPACITY), p, values);
+                    if (round >= 0)
+                        throughputs[round] = throughput;
+                }
+                Arrays.sort(throughputs);
+                System.out.printf("%-14s %6d %12.2f%n", type, p, throughputs[ROUNDS / 2]);
+            }
+        }
+    }
+
+    /**
+     * Moves values through a queue from producers to consumers
+     *
+     * @param queue  the queue to measure
+     * @param pairs  the number of producers, and of consumers
+     * @param values the total number of values moved
+     * @return the throughput in millions of operations per second
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    private static double round(ConcurrentQueue<Integer> queue, int pairs, int values) throws InterruptedException {
+        int perProducer = values / pairs;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[2 * pairs];
+        // Boxed once, so that the measure only includes the allocations of the queue itself
+        Integer value = 42;
+
+        for (int i = 0; i < pairs; i++) {
+            threads[i] = new Thread(() -> {
+                await(start);
+                for (int n = 0; n < perProducer; n++)
+                    queue.put(value);
+            });
+            threads[pairs + i] = new Thread(() -> {
+                await(start);
+                // Each consumer takes as many values as a producer adds, so no counter is shared
+                for (int n = 0; n < perProducer; ) {
+                    if (queue.dequeue() != null)
+                        n++;
+                    else
+                        Thread.yield();
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        long elapsed = System.nanoTime() - begin;
+        return 2.0 * perProducer * pairs / elapsed * 1e3;
+    }
+
+    /**
+     * Waits for the start of a round
+     *
+     * @param start the latch released when the round starts
+     */
+    private static void await(CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
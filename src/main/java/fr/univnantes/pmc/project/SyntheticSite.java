@@ -0,0 +1,100 @@
+package fr.univnantes.pmc.project;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a synthetic Web site on the local machine, used to benchmark WebGrep without depending on the network
+ * <p>
+ * The site is made of a fixed number of pages "/page/0" to "/page/(n-1)", each linking to a few pseudo-random other
+ * pages, and some of them containing the word "Nantes". Every response is delayed to simulate the latency of a
+ * remote server, so that the threads of WebGrep really have to wait for the pages. As the content of a page never
+ * changes, a request revalidating it with its ETag gets a 304 Not Modified without a body.
+ * <p>
+ * Example: java SyntheticSite 8080 10000 50 8
+ * then: java WebGrep -l --threads=1000 Nantes http://localhost:8080/page/0
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class SyntheticSite {
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int latency = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int links = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+        server.createContext("/page/", exchange -> servePage(exchange, pages, latency, links));
+        // The latency is simulated by sleeping, so each connection gets its own cheap thread
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        System.out.println("Serving " + pages + " pages on http://localhost:" + port + "/page/0 with a latency of "
+                + latency + " ms");
+    }
+
+    /**
+     * Answers the request of one page
+     *
+     * @param exchange the request
+     * @param pages    the number of pages of the site
+     * @param latency  the delay before answering, in milliseconds
+     * @param links    the number of links on each page
+     * @throws IOException if the response cannot be sent
+     */
+    private static void servePage(HttpExchange exchange, int pages, int latency, int links) throws IOException {
+        try (exchange) {
+            int page;
+            try {
+                page = Integer.parseInt(exchange.getRequestURI().getPath().substring("/page/".length()));
+            } catch (NumberFormatException e) {
+                page = -1;
+            }
+            if (page < 0 || page >= pages) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            Thread.sleep(latency);
+
+            String etag = "\"page-" + page + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            // The content of a page only depends on its number
+            Random random = new Random(page);
+            StringBuilder html = new StringBuilder("<html><head><title>Page ").append(page).append("</title></head><body>");
+            html.append("<h1>Page ").append(page).append("</h1>");
+            for (int i = 0; i < 20; i++) {
+                html.append("<p>Paragraph ").append(i).append(" of page ").append(page);
+                if (random.nextInt(4) == 0)
+                    html.append(", written in Nantes");
+                html.append(".</p>");
+            }
+            for (int i = 0; i < links; i++) {
+                html.append("<a href=\"/page/").append(random.nextInt(pages)).append("\">link</a> ");
+            }
+            html.append("</body></html>");
+
+            byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,31 +1,67 @@
 package fr.univnantes.pmc.project;
 
 import fr.univnantes.pmc.project.api.ParsedPage;
-import fr.univnantes.pmc.project.impl.TL2Dictionary;
+import fr.univnantes.pmc.project.impl.LongHashSet;
 import fr.univnantes.pmc.project.threadpool.ThreadPool;
-import fr.univnantes.pmc.project.tools.MichaelScottQueue;
+import fr.univnantes.pmc.project.threadpool.ThreadPoolMetrics;
+import fr.univnantes.pmc.project.tools.ConcurrentQueue;
+import fr.univnantes.pmc.project.tools.CrawlFrontier;
+import fr.univnantes.pmc.project.tools.CrawlLog;
+import fr.univnantes.pmc.project.tools.FrontierSpill;
+import fr.univnantes.pmc.project.tools.QueueType;
+import fr.univnantes.pmc.project.tools.RingBufferQueue;
 import fr.univnantes.pmc.project.tools.Tools;
+import fr.univnantes.pmc.project.tools.UrlFingerprint;
+import org.jsoup.HttpStatusException;
 
+import javax.management.JMException;
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class WebGrep {
 
-    // Used to store each urls that have been explored
-    private final static TL2Dictionary explored_ = new TL2Dictionary();
+    // Number of times a page is fetched again after a transient failure
+    private final static int MAX_RETRIES = 3;
 
-    // Used to store each urls that have been explored and their parsed page
-    private final static ConcurrentHashMap<String, ParsedPage> explored = new ConcurrentHashMap<>();
+    // Delay before the first retry, doubled for each following one
+    private final static long RETRY_DELAY = 500;
 
-    // Used to linearize the printing of the results
-    private final static MichaelScottQueue<String> printQueue = new MichaelScottQueue<>();
+    // Number of pages the set of discovered pages can hold before it grows
+    private final static int EXPECTED_PAGES = 1 << 16;
 
-    // Used to parallelize the exploration of the pages with our custom thread pool
-    private final static ThreadPool threadPool = new ThreadPool(Tools.numberThreads());
+    // Used to store the fingerprint of each url that has been discovered, so that each page is explored once,
+    // 8 bytes per url off-heap
+    private final static LongHashSet discovered = new LongHashSet(EXPECTED_PAGES);
 
-    private final static ParsedPage nullPage = new ParsedPage() {
+    // Size of the ring buffers when the queues are bounded and no capacity is given
+    private final static int RING_CAPACITY = 1 << 16;
+
+    // Maximum number of pages taken from the print queue at once
+    private final static int PRINT_BATCH = 256;
+
+    // Estimated heap taken by a page waiting to be fetched: its task, its URL and its place in a queue, or its request
+    // while it waits for a response
+    private final static int FRONTIER_PAGE_BYTES = 512;
+
+    // Estimated heap taken by a matching page waiting to be printed: its address, its matches and their offsets
+    private final static int PRINTED_PAGE_BYTES = 4 * 1024;
+
+    // Used to linearize the printing of the results, each matching page being released once printed,
+    // created once the options are known
+    private static ConcurrentQueue<ParsedPage> printQueue;
+
+    // Enqueued once every page is explored, compared by reference so that it cannot be mistaken for a page
+    private final static ParsedPage END_OF_CRAWL = new ParsedPage() {
 
         @Override
         public List<String> matches() {
@@ -43,56 +79,361 @@ public class WebGrep {
         }
     };
 
+    // Number of pages whose fetch was started since the program started, bounded by --max-pages
+    private final static AtomicLong started = new AtomicLong(0);
+
+    // Keeps the discovered pages that do not fit in the memory budget given by --memory, null without a budget
+    private static FrontierSpill spill;
+
+    // Maximum number of pages waiting in memory to be fetched when there is a memory budget
+    private static long maxWaiting;
+
+    // Number of pages submitted and not fetched yet, whether they wait in the pool, in the queue of their host or
+    // for a response; only counted when there is a memory budget
+    private final static AtomicLong waiting = new AtomicLong(0);
+
+    // Used to parallelize the exploration of the pages with our custom thread pool,
+    // created once the options are known
+    private static ThreadPool threadPool;
+
+    // Spreads the fetches over the hosts when a limit per host is given, null otherwise
+    private static CrawlFrontier frontier;
+
+    // Maximum time between two writes of the checkpoint to the disk
+    private final static long CHECKPOINT_PERIOD = 1000;
+
+    // Records the progress of the crawl when it may be resumed, null otherwise
+    private static CrawlLog crawlLog;
+
     /**
-     * Explore a page and recursively explore other pages
+     * Explore a page and recursively explore other pages, unless it was already discovered
      *
      * @param address the address of the page to explore
+     * @param depth   the number of links followed from the starting URLs to reach the page
      */
-    private static void explore(String address) {
-        threadPool.submit(() -> {
-            try {
-                /*
-                 * Check that the page was not already explored and adds it
-                 */
-                if (explored.putIfAbsent(address, nullPage) == null) {
-                    // Parse the page to find matches and hypertext links
-                    ParsedPage page = Tools.parsePage(address);
-                    if (!page.matches().isEmpty()) {
-
-                        explored.put(address, page);
-                        explored_.add(address);
-                        printQueue.enqueue(address);
-
-                        // Recursively explore other pages
-                        for (String href : page.hrefs())
-                            explore(href);
-                    }
+    private static void explore(String address, int depth) {
+        if (discovered.add(UrlFingerprint.of(address)))
+            explore(List.of(address), depth);
+    }
+
+    /**
+     * Explore newly discovered pages, or keep them on disk if they do not fit in the memory budget
+     *
+     * @param addresses the addresses of the pages to explore, never explored before
+     * @param depth     the number of links followed from the starting URLs to reach the pages
+     */
+    private static void explore(List<String> addresses, int depth) {
+        if (addresses.isEmpty())
+            return;
+        if (spill != null && waiting.get() + addresses.size() > maxWaiting) {
+            spill.add(addresses, depth);
+            // The explorations in memory may all have started already
+            refill();
+            return;
+        }
+        List<Runnable> explorations = new ArrayList<>(addresses.size());
+        for (String address : addresses)
+            explorations.add(exploration(address, depth));
+        if (spill != null)
+            waiting.addAndGet(explorations.size());
+        threadPool.submitAll(explorations);
+    }
+
+    /**
+     * Moves the pages kept on disk back to memory once half of the pages waiting in memory have been fetched.
+     * It is called after every fetch, so the last fetch always finds room: no page is left on disk once the pool
+     * is quiescent.
+     */
+    private static void refill() {
+        if (spill == null || waiting.get() > maxWaiting / 2)
+            return;
+        Map<String, Integer> pages;
+        synchronized (spill) {
+            long room = maxWaiting - waiting.get();
+            if (room <= 0 || spill.size() == 0)
+                return;
+            pages = spill.poll((int) Math.min(room, Integer.MAX_VALUE));
+            waiting.addAndGet(pages.size());
+        }
+        List<Runnable> explorations = new ArrayList<>(pages.size());
+        for (Map.Entry<String, Integer> page : pages.entrySet())
+            explorations.add(exploration(page.getKey(), page.getValue()));
+        threadPool.submitAll(explorations);
+    }
+
+    /**
+     * Create the task exploring a page
+     *
+     * @param address the address of the page to explore
+     * @param depth   the number of links followed from the starting URLs to reach the page
+     * @return the task exploring the page
+     */
+    private static Runnable exploration(String address, int depth) {
+        return () -> {
+            if (!limitReached(started.incrementAndGet()))
+                fetch(address, depth, 0);
+            else
+                unwait();
+        };
+    }
+
+    /**
+     * Check whether a crawl of this many pages exceeds --max-pages
+     *
+     * @param pages the number of pages
+     * @return true if the page fetched last would exceed the limit
+     */
+    private static boolean limitReached(long pages) {
+        return Tools.maxPages() > 0 && pages > Tools.maxPages();
+    }
+
+    /**
+     * Fetch a page now, or once its host is ready if the fetches are limited per host
+     *
+     * @param address the address of the page to fetch
+     * @param depth   the number of links followed from the starting URLs to reach the page
+     * @param attempt the number of attempts already made
+     */
+    private static void fetch(String address, int depth, int attempt) {
+        if (frontier == null)
+            visit(address, depth, attempt);
+        else
+            frontier.submit(address, () -> visit(address, depth, attempt));
+    }
+
+    /**
+     * Release the host of a page once the page was fetched, successfully or not
+     *
+     * @param address the address of the fetched page
+     */
+    private static void fetched(String address) {
+        if (frontier != null)
+            frontier.done(address);
+        unwait();
+    }
+
+    /**
+     * Release the place of a page in the memory budget, once it is fetched or once it will not be
+     */
+    private static void unwait() {
+        if (spill != null) {
+            waiting.decrementAndGet();
+            refill();
+        }
+    }
+
+    /**
+     * Fetch a page already marked as explored, and schedule a new attempt later if it failed for a transient
+     * reason
+     *
+     * @param address the address of the page to fetch
+     * @param depth   the number of links followed from the starting URLs to reach the page
+     * @param attempt the number of attempts already made
+     */
+    private static void visit(String address, int depth, int attempt) {
+        if (Tools.asyncFetch()) {
+            // No worker waits for the page: it is parsed by a worker once its whole body has arrived
+            threadPool.submitOnCompletion(Tools.fetchAsync(address), (response, error) -> {
+                fetched(address);
+                try {
+                    if (error != null)
+                        failed(address, depth, attempt, error instanceof CompletionException
+                                && error.getCause() != null ? error.getCause() : error);
+                    else
+                        found(address, depth, Tools.parsePage(address, response));
+                } catch (Exception e) {
+                    failed(address, depth, attempt, e);
                 }
-            } catch (Exception e) {
-                System.err.println(e.getMessage());
-                /* We could retry later... */
+            });
+            return;
+        }
+        try {
+            // Parse the page to find matches and hypertext links
+            ParsedPage page;
+            try {
+                page = Tools.parsePage(address);
+            } finally {
+                fetched(address);
             }
-        });
+            found(address, depth, page);
+        } catch (Exception e) {
+            failed(address, depth, attempt, e);
+        }
+    }
+
+    /**
+     * Print a parsed page and explore its links if it matches the expression
+     *
+     * @param address the address of the page
+     * @param depth   the number of links followed from the starting URLs to reach the page
+     * @param page    the parsed page
+     */
+    private static void found(String address, int depth, ParsedPage page) {
+        if (!page.matches().isEmpty()) {
+            // The links are followed unless the page is as deep as allowed, each page being explored once
+            List<String> links = new ArrayList<>();
+            if (Tools.maxDepth() < 0 || depth < Tools.maxDepth())
+                for (String href : page.hrefs())
+                    if (discovered.add(UrlFingerprint.of(href)))
+                        links.add(href);
+
+            // The links must be checkpointed before the page, so that they are explored if the crawl is resumed
+            if (crawlLog != null)
+                crawlLog.discovered(links, depth + 1);
+
+            // The page is printed, and then released, by the main thread; its links are not kept until then
+            printQueue.put(Tools.printable(page));
 
+            // Recursively explore other pages, submitted together, unless no other page will be fetched
+            if (!limitReached(started.get() + 1))
+                explore(links, depth + 1);
+        } else if (crawlLog != null) {
+            // A matching page is logged as explored once printed, so that it is printed again if the crawl is resumed
+            crawlLog.explored(address);
+        }
     }
 
+    /**
+     * Schedule a new attempt to fetch a page later if it failed for a transient reason, or report the failure
+     *
+     * @param address the address of the page
+     * @param depth   the number of links followed from the starting URLs to reach the page
+     * @param attempt the number of attempts already made
+     * @param e       the failure of the last attempt
+     */
+    private static void failed(String address, int depth, int attempt, Throwable e) {
+        if (attempt < MAX_RETRIES && isRetryable(e)) {
+            // Exponential back-off, with some jitter so that the pages of a struggling server are not all
+            // fetched again at the same time
+            long delay = (RETRY_DELAY << attempt) + ThreadLocalRandom.current().nextLong(RETRY_DELAY);
+            // The page waits in memory again until its next attempt
+            if (spill != null)
+                waiting.incrementAndGet();
+            threadPool.schedule(() -> fetch(address, depth, attempt + 1), delay, TimeUnit.MILLISECONDS);
+        } else {
+            // The exceptions of HttpClient may have no message
+            System.err.println(e.getMessage() != null ? e.getMessage() : address + ": " + e);
+            // Not fetched again if the crawl is resumed, as it would not be in this crawl
+            if (crawlLog != null)
+                crawlLog.explored(address);
+        }
+    }
+
+    /**
+     * Check whether fetching a page again may succeed
+     *
+     * @param e the failure of the last attempt
+     * @return true for timeouts, refused connections and server errors
+     */
+    private static boolean isRetryable(Throwable e) {
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).getStatusCode();
+            return status == 429 || status >= 500;
+        }
+        return e instanceof SocketTimeoutException || e instanceof HttpTimeoutException || e instanceof ConnectException;
+    }
 
-    public static void main(String[] args) throws InterruptedException, IOException {
+
+    public static void main(String[] args) throws InterruptedException, IOException, JMException {
         // Initialize the program using the options given in argument
         if (args.length == 0)
             Tools.initialize("-cet --threads=1000 Nantes https://fr.wikipedia.org/wiki/Nantes");
         else
             Tools.initialize(args);
 
+        QueueType queueType = Tools.queueType();
+        // A ring buffer cannot grow, so the pool must be bounded too
+        int capacity = Tools.queueCapacity() == 0 && queueType.isBounded() ? RING_CAPACITY : Tools.queueCapacity();
+        if (Tools.memoryBudget() > 0) {
+            // Half of the budget for the pages waiting to be fetched, the pages discovered beyond it wait on disk
+            long budget = Tools.memoryBudget() * (1L << 20) / 2;
+            maxWaiting = Math.max(budget / FRONTIER_PAGE_BYTES, 1);
+            spill = new FrontierSpill();
+            // The other half for the matching pages waiting to be printed: the workers wait while the printer is late
+            printQueue = new RingBufferQueue<>((int) Math.min(Math.max(budget / PRINTED_PAGE_BYTES, 2), 1 << 30));
+        } else {
+            printQueue = queueType.create(RING_CAPACITY);
+        }
+
+        threadPool = new ThreadPool.Builder()
+                .threads(Tools.numberThreads())
+                .maxThreads(Math.max(Tools.maxThreads(), Tools.numberThreads()))
+                .idleStrategy(Tools.idleStrategy())
+                .workStealing(Tools.workStealing())
+                .batchSize(Tools.batchSize())
+                .virtualThreads(Tools.virtualThreads())
+                .queue(() -> queueType.create(capacity))
+                .capacity(capacity)
+                .rejectionPolicy(Tools.rejectionPolicy())
+                .metrics(Tools.metricsPeriod() > 0)
+                .build();
+
+        if (Tools.perHost() > 0 || Tools.hostDelay() > 0)
+            frontier = new CrawlFrontier(threadPool, Tools.perHost(), Tools.hostDelay(), TimeUnit.MILLISECONDS);
+
+        ThreadPoolMetrics metrics = threadPool.metrics();
+        if (metrics != null) {
+            metrics.register("WebGrep");
+            metrics.logEvery(Tools.metricsPeriod(), TimeUnit.SECONDS, System.err);
+        }
+
+        // Go on from the last checkpoint: the pages explored are skipped, the pages discovered are explored
+        List<String> seeds = new ArrayList<>(Tools.startingURL());
+        if (Tools.resumeDirectory() != null) {
+            crawlLog = new CrawlLog(Tools.resumeDirectory(), CHECKPOINT_PERIOD, TimeUnit.MILLISECONDS);
+            AtomicLong done = new AtomicLong(0);
+            AtomicLong pending = new AtomicLong(0);
+            // The pages explored are all given first, so that none of them is explored again;
+            // a starting URL still pending is explored once, as its page is discovered once
+            crawlLog.replay(address -> {
+                done.incrementAndGet();
+                discovered.add(UrlFingerprint.of(address));
+                seeds.removeIf(address::equals);
+            }, (address, depth) -> {
+                pending.incrementAndGet();
+                explore(address, depth);
+            });
+            if (done.get() > 0 || pending.get() > 0)
+                System.err.println("Resuming the crawl: " + done.get() + " pages explored, "
+                        + pending.get() + " pages to explore");
+            crawlLog.discovered(seeds, 0);
+        }
+
         // Get the starting URL given in argument
-        for (String address : Tools.startingURL())
-            explore(address);
-
-        String url;
-        while (true) {
-            url = printQueue.dequeue();
-            if (url != null)
-                Tools.print(explored.get(url));
+        for (String address : seeds)
+            explore(address, 0);
+
+        // Once the pool is quiescent, every page found is already enqueued, so the marker comes last
+        Thread.startVirtualThread(() -> {
+            threadPool.waitUntilAllTasksFinished();
+            printQueue.put(END_OF_CRAWL);
+        });
+
+        // The main thread sleeps while there is nothing to print, then prints every page waiting at once
+        // The pages are only referenced by the batch once dequeued, and released when it is cleared
+        List<ParsedPage> batch = new ArrayList<>(PRINT_BATCH);
+        boolean crawling = true;
+        while (crawling) {
+            batch.add(printQueue.take());
+            printQueue.drainTo(batch, PRINT_BATCH - 1);
+            for (ParsedPage page : batch) {
+                if (page == END_OF_CRAWL) {
+                    crawling = false;
+                } else {
+                    Tools.print(page);
+                    if (crawlLog != null)
+                        crawlLog.explored(page.address());
+                }
+            }
+            batch.clear();
         }
+        // The crawl is over, the threads can exit
+        threadPool.shutdown();
+        if (crawlLog != null)
+            crawlLog.close();
+        if (spill != null)
+            spill.close();
+        if (metrics != null)
+            System.err.println(metrics);
     }
 }
\ No newline at end of file
@@ -28,5 +28,16 @@ public interface ParsedPage {
 	 * @return list of URLs
 	 */
 	List<String> hrefs();
+
+	/**
+	 * Gets the offsets of the matching expressions in each element of matches(), so that they can be printed without
+	 * searching them again
+	 *
+	 * @return for each element, the start and end offsets of its successive matching expressions in pairs, or null if
+	 *         they were not recorded
+	 */
+	default List<int[]> matchOffsets() {
+		return null;
+	}
 }
 
@@ -1,7 +1,11 @@
 package fr.univnantes.pmc.project.impl;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * An implementation of a set of strings based on a dictionary.
@@ -11,10 +15,18 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class Dictionary {
 
+    // Approximate footprint of a node on a 64-bit JVM with compressed references:
+    // the node itself (32 bytes), its AtomicBoolean (16 bytes) and its two AtomicReference (16 bytes each)
+    private static final long NODE_BYTES = 80;
+
     // The empty string is stored separately
     private final AtomicBoolean emptyAbsent = new AtomicBoolean(true);
     // We start with a first node, to simplify the algorithm, that encodes the smallest non-empty string "\0".
     private final Node start = new Node('\0', null);
+    // Number of strings inserted, only updated by the first insertion of a string
+    private final LongAdder size = new LongAdder();
+    // Number of nodes created by the insertions
+    private final LongAdder nodes = new LongAdder();
 
     /**
      * Adds the specified string to this set if it is not already present.
@@ -25,10 +37,39 @@ public class Dictionary {
      * @return true if s was not already inserted, false otherwise
      */
     public boolean add(String s) {
-        if (s.isEmpty()) {
-            return emptyAbsent.getAndSet(false);
+        boolean absent = s.isEmpty() ? emptyAbsent.getAndSet(false) : start.add(s, 0);
+        if (absent) {
+            size.increment();
         }
-        return start.add(s, 0);
+        return absent;
+    }
+
+    /**
+     * Get the number of strings in the set.
+     * The count is maintained by the insertions, so it is not computed by traversing the dictionary.
+     *
+     * @return the number of strings in the set
+     */
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * Get the number of nodes of the dictionary, excluding the start node
+     *
+     * @return the number of nodes of the dictionary
+     */
+    public long nodeCount() {
+        return nodes.sum();
+    }
+
+    /**
+     * Get an estimation of the memory used by the nodes of the dictionary
+     *
+     * @return the approximate number of bytes used by the dictionary
+     */
+    public long approximateBytes() {
+        return (nodes.sum() + 1) * NODE_BYTES;
     }
 
     /**
@@ -38,24 +79,58 @@ public class Dictionary {
      * @return true if the dictionary contains the string, false otherwise
      */
     public synchronized boolean contains(String s) {
+        if (s.isEmpty()) {
+            return !emptyAbsent.get();
+        }
         Node node = start.next.get();
-        if (node == null) return false;
-
+        Node last = null;
         int depth = 0;
-        boolean found = false;
 
         while (node != null && depth < s.length()) {
 
             if (node.character == s.charAt(depth)) {
+                last = node;
                 node = node.suffix.get();
                 depth++;
-                found = true;
             } else {
                 node = node.next.get();
-                found = false;
             }
         }
-        return found && depth == s.length();
+        // The string must lead to a node, and must have been inserted, not only be a prefix of another string
+        return depth == s.length() && last != null && !last.absent.get();
+    }
+
+    /**
+     * Writes a snapshot of the dictionary in a file, that can be mapped in memory by {@link MappedDictionary#load(Path)}.
+     * The strings added concurrently may or may not be part of the snapshot.
+     *
+     * @param path the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public void snapshot(Path path) throws IOException {
+        try (MappedDictionary.SnapshotWriter writer = new MappedDictionary.SnapshotWriter(path, !emptyAbsent.get())) {
+            // Nodes are numbered in breadth-first order, so the index of a node is known as soon as it is discovered
+            ArrayDeque<Node> queue = new ArrayDeque<>();
+            queue.add(start);
+            int discovered = 1;
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                Node suffix = node.suffix.get();
+                Node next = node.next.get();
+                int suffixIndex = -1;
+                int nextIndex = -1;
+                if (suffix != null) {
+                    suffixIndex = discovered++;
+                    queue.add(suffix);
+                }
+                if (next != null) {
+                    nextIndex = discovered++;
+                    queue.add(next);
+                }
+                writer.node(node.character, !node.absent.get(), suffixIndex, nextIndex);
+            }
+            writer.commit();
+        }
     }
 
     /**
@@ -71,7 +146,7 @@ public class Dictionary {
      * <p>
      * A word s is contained in the dictionary if there is a node n whose path is s
      */
-    private static class Node {
+    private class Node {
         // The character of the string encoded in this node of the dictionary
         final char character;
         // True if the string leading to this node has already been inserted, false otherwise
@@ -110,6 +185,7 @@ public class Dictionary {
                 if (node == null || node.character > s.charAt(depth + 1)) {
                     node = new Node(s.charAt(depth + 1), node);
                     suffix.set(node);
+                    nodes.increment();
                 }
                 return node.add(s, depth + 1);
             }
@@ -120,6 +196,7 @@ public class Dictionary {
             if (node == null || node.character > s.charAt(depth)) {
                 node = new Node(s.charAt(depth), node);
                 next.set(node);
+                nodes.increment();
             }
             return node.add(s, depth);
         }
@@ -0,0 +1,294 @@
+package fr.univnantes.pmc.project.impl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A set of longs that any number of threads can use at the same time, stored off-heap in a table of 8 bytes per slot.
+ * <p>
+ * The table is open-addressed with linear probing: a value is put in the first empty slot after its hash with a
+ * compare-and-set, and a slot never changes once it holds a value, so add() and contains() take no lock. Two values
+ * are reserved for the slots, EMPTY and MOVED; the set still holds them, in flags of their own.
+ * <p>
+ * Once the table is half full, a table twice as large is created and the values are moved to it by chunks of slots.
+ * Every thread meeting the old table helps: it claims the chunks left, copies their values to the new table and
+ * marks each slot of the chunk MOVED, so that no value can be added to the old table any more. A thread that needs
+ * the new table for an add() waits for the last chunks claimed by other threads, as the value it adds may still be
+ * in one of them; contains() never waits, as a value is copied before its slot is marked MOVED.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0;
+    private static final long MOVED = 1;
+    // Number of slots moved at once to a new table
+    private static final int CHUNK = 1024;
+    // A ByteBuffer cannot hold 2^31 bytes
+    private static final int MAX_CAPACITY = 1 << 27;
+    private static final VarHandle SLOT = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final AtomicReference<Table> table;
+    private final AtomicLong size = new AtomicLong(0);
+    private final AtomicBoolean hasEmpty = new AtomicBoolean(false);
+    private final AtomicBoolean hasMoved = new AtomicBoolean(false);
+
+    /**
+     * Create a new empty LongHashSet
+     *
+     * @param expectedSize the number of values the set can hold before its table grows
+     */
+    public LongHashSet(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("LongHashSet - expectedSize must not be negative: " + expectedSize);
+        int capacity = CHUNK;
+        while (capacity / 2 < expectedSize && capacity < MAX_CAPACITY)
+            capacity *= 2;
+        this.table = new AtomicReference<>(new Table(capacity));
+    }
+
+    /**
+     * Adds a value to the set if it is not already present
+     *
+     * @param value the value to add
+     * @return true if the value was added, false if it was already present
+     */
+    public boolean add(long value) {
+        if (value == EMPTY || value == MOVED) {
+            boolean added = (value == EMPTY ? hasEmpty : hasMoved).compareAndSet(false, true);
+            if (added)
+                size.incrementAndGet();
+            return added;
+        }
+        Table current = table.get();
+        while (true) {
+            int result = current.insert(value);
+            if (result == Table.PRESENT)
+                return false;
+            if (result == Table.ADDED) {
+                size.incrementAndGet();
+                if (current.count.incrementAndGet() > current.threshold())
+                    grow(current);
+                return true;
+            }
+            // The table is being replaced, or full, the value can only be added to the new one
+            current = grow(current);
+        }
+    }
+
+    /**
+     * Check if the set contains a value
+     *
+     * @param value the value to check
+     * @return true if the set contains the value
+     */
+    public boolean contains(long value) {
+        if (value == EMPTY)
+            return hasEmpty.get();
+        if (value == MOVED)
+            return hasMoved.get();
+        for (Table current = table.get(); current != null; current = current.next.get()) {
+            if (current.find(value))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of values in the set
+     *
+     * @return the number of values
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * Get the memory used off-heap by the table of the set
+     *
+     * @return the number of bytes of the current table
+     */
+    public long approximateBytes() {
+        return 8L * table.get().capacity();
+    }
+
+    /**
+     * Starts replacing a table by a table twice as large, unless it is already being replaced, and helps moving its
+     * values
+     *
+     * @param full the table to replace
+     * @return the table replacing it
+     */
+    private Table grow(Table full) {
+        if (full.next.get() == null && full.growing.compareAndSet(false, true)) {
+            if (full.capacity() >= MAX_CAPACITY) {
+                full.growing.set(false);
+                throw new IllegalStateException("LongHashSet - cannot hold more than " + MAX_CAPACITY / 2 + " values");
+            }
+            full.next.set(new Table(full.capacity() * 2));
+        }
+        return moveAll(full);
+    }
+
+    /**
+     * Helps moving the values of a table to its replacement, and waits until all of them are moved
+     *
+     * @param old the table being replaced
+     * @return the table replacing it
+     */
+    private Table moveAll(Table old) {
+        Table next;
+        // The thread that started the growth may not have created the new table yet
+        while ((next = old.next.get()) == null) {
+            if (!old.growing.get())
+                throw new IllegalStateException("LongHashSet - cannot hold more than " + MAX_CAPACITY / 2 + " values");
+            Thread.onSpinWait();
+        }
+        int chunks = old.capacity() / CHUNK;
+        int chunk;
+        while ((chunk = old.claimed.getAndIncrement()) < chunks) {
+            moveChunk(old, chunk);
+            old.moved.incrementAndGet();
+        }
+        while (old.moved.get() < chunks)
+            Thread.yield();
+        table.compareAndSet(old, next);
+        return next;
+    }
+
+    /**
+     * Moves the values of a chunk of a table to its replacement, and marks each of its slots MOVED
+     *
+     * @param old   the table being replaced
+     * @param chunk the index of the chunk
+     */
+    private void moveChunk(Table old, int chunk) {
+        int end = (chunk + 1) * CHUNK;
+        for (int slot = chunk * CHUNK; slot < end; slot++) {
+            long value = old.get(slot);
+            // An empty slot may be filled by an add() in the meantime
+            while (value == EMPTY && !old.compareAndSet(slot, EMPTY, MOVED))
+                value = old.get(slot);
+            if (value == EMPTY)
+                continue;
+            Table target = old.next.get();
+            int result;
+            while ((result = target.insert(value)) == Table.MOVED)
+                target = grow(target);
+            if (result == Table.ADDED && target.count.incrementAndGet() > target.threshold())
+                grow(target);
+            old.set(slot, MOVED);
+        }
+    }
+
+    /**
+     * Mixes the bits of a value, so that close values are spread over the table
+     *
+     * @param value the value
+     * @return the hash of the value
+     */
+    private static long hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * A table of slots, and the state of its replacement
+     */
+    private static final class Table {
+        static final int ADDED = 0;
+        static final int PRESENT = 1;
+        static final int MOVED = 2;
+
+        final ByteBuffer slots;
+        final int mask;
+        // Number of values in the table, including the values moved from the previous table
+        final AtomicLong count = new AtomicLong(0);
+        final AtomicBoolean growing = new AtomicBoolean(false);
+        final AtomicReference<Table> next = new AtomicReference<>(null);
+        // Number of chunks claimed and moved to the next table
+        final AtomicInteger claimed = new AtomicInteger(0);
+        final AtomicInteger moved = new AtomicInteger(0);
+
+        Table(int capacity) {
+            // A direct buffer is zeroed, so every slot starts EMPTY
+            this.slots = ByteBuffer.allocateDirect(8 * capacity).order(ByteOrder.nativeOrder());
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        long threshold() {
+            return capacity() / 2;
+        }
+
+        long get(int slot) {
+            return (long) SLOT.getVolatile(slots, slot << 3);
+        }
+
+        void set(int slot, long value) {
+            SLOT.setVolatile(slots, slot << 3, value);
+        }
+
+        boolean compareAndSet(int slot, long expected, long value) {
+            return SLOT.compareAndSet(slots, slot << 3, expected, value);
+        }
+
+        /**
+         * Puts a value in the first empty slot after its hash
+         *
+         * @param value the value, neither EMPTY nor MOVED
+         * @return ADDED, PRESENT if the value was found on the way, or MOVED if the table is being replaced
+         */
+        int insert(long value) {
+            int slot = (int) hash(value) & mask;
+            for (int probes = 0; probes <= mask; ) {
+                long current = get(slot);
+                if (current == value)
+                    return PRESENT;
+                if (current == LongHashSet.MOVED)
+                    return MOVED;
+                // If another value took the slot first, it is read again
+                if (current == EMPTY && compareAndSet(slot, EMPTY, value))
+                    return ADDED;
+                if (current != EMPTY) {
+                    slot = (slot + 1) & mask;
+                    probes++;
+                }
+            }
+            // Only a table that is being replaced can be full
+            return MOVED;
+        }
+
+        /**
+         * Searches a value, skipping the slots already moved
+         *
+         * @param value the value, neither EMPTY nor MOVED
+         * @return true if the value is in this table
+         */
+        boolean find(long value) {
+            int slot = (int) hash(value) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long current = get(slot);
+                if (current == value)
+                    return true;
+                if (current == EMPTY)
+                    return false;
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+    }
+}
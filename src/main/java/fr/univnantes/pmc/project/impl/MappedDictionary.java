@@ -0,0 +1,257 @@
+package fr.univnantes.pmc.project.impl;
+
+import fr.univnantes.pmc.project.api.AbortException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A dictionary whose content is read directly from a snapshot file mapped in memory.
+ * <p>
+ * A snapshot is written by {@link Dictionary#snapshot(Path)} or {@link TL2Dictionary#snapshot(Path)}.
+ * It is an immutable flat array of fixed-size records, one per node of the original dictionary, numbered in
+ * breadth-first order. Loading a snapshot only maps the file, nothing is deserialized: lookups follow the
+ * "suffix" and "next" indices of the records off-heap.
+ * <p>
+ * The strings added after loading are inserted in an on-heap delta dictionary layered over the mapped base.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class MappedDictionary {
+
+    // Identifies a snapshot file ("DICT")
+    private static final int MAGIC = 0x44494354;
+    private static final int VERSION = 1;
+    // Header: magic, version, flags, number of nodes and number of strings
+    private static final int HEADER_BYTES = 24;
+    // Record: suffix index, next index, character and flags
+    private static final int RECORD_BYTES = 12;
+    private static final int FLAG_PRESENT = 1;
+    // Index used for a missing suffix or next node
+    private static final int NONE = -1;
+
+    private final MappedByteBuffer base;
+    private final boolean emptyPresent;
+    private final long baseNodes;
+    private final long baseSize;
+    private final TL2Dictionary delta = new TL2Dictionary();
+
+    private MappedDictionary(MappedByteBuffer base) {
+        this.base = base;
+        this.emptyPresent = (base.getInt(8) & FLAG_PRESENT) != 0;
+        // The start node is not counted, like in the heap dictionaries
+        this.baseNodes = base.getInt(12) - 1;
+        this.baseSize = base.getLong(16);
+    }
+
+    /**
+     * Maps a snapshot file in memory
+     *
+     * @param path the snapshot file
+     * @return a dictionary containing the strings of the snapshot
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static MappedDictionary load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE || size < HEADER_BYTES + RECORD_BYTES || (size - HEADER_BYTES) % RECORD_BYTES != 0)
+                throw new IOException("MappedDictionary - load: Invalid snapshot size " + size);
+
+            // The mapping remains valid once the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException("MappedDictionary - load: Not a dictionary snapshot");
+            if ((long) buffer.getInt(12) * RECORD_BYTES != size - HEADER_BYTES)
+                throw new IOException("MappedDictionary - load: Truncated snapshot");
+            return new MappedDictionary(buffer);
+        }
+    }
+
+    /**
+     * Adds the specified string to this set if it is not already present.
+     * The mapped base is never modified, new strings are stored in the delta dictionary.
+     *
+     * @param s The string that is being inserted in the set
+     * @return true if s was not already inserted, false otherwise
+     * @throws AbortException if the insertion in the delta dictionary is aborted
+     */
+    public boolean add(String s) throws AbortException {
+        if (baseContains(s))
+            return false;
+        return delta.add(s);
+    }
+
+    /**
+     * Check if the dictionary contains a string
+     *
+     * @param s the string to check
+     * @return true if the dictionary contains the string, false otherwise
+     * @throws AbortException if the lookup in the delta dictionary is aborted
+     */
+    public boolean contains(String s) throws AbortException {
+        return baseContains(s) || delta.contains(s);
+    }
+
+    /**
+     * Get the number of strings in the set, read from the snapshot header for the mapped base
+     *
+     * @return the number of strings in the set
+     */
+    public long size() {
+        return baseSize + delta.size();
+    }
+
+    /**
+     * Get the number of nodes of the mapped base and of the delta dictionary, excluding the start nodes
+     *
+     * @return the number of nodes of the dictionary
+     */
+    public long nodeCount() {
+        return baseNodes + delta.nodeCount();
+    }
+
+    /**
+     * Get an estimation of the memory used by the dictionary.
+     * The mapped base is counted with the size of the file, although it lives outside of the heap.
+     *
+     * @return the approximate number of bytes used by the dictionary
+     */
+    public long approximateBytes() {
+        return base.capacity() + delta.approximateBytes();
+    }
+
+    /**
+     * Check if the mapped base contains a string, without looking at the delta dictionary
+     *
+     * @param s the string to check
+     * @return true if the snapshot contains the string, false otherwise
+     */
+    private boolean baseContains(String s) {
+        if (s.isEmpty())
+            return emptyPresent;
+
+        // Record 0 is the "\0" start node of the original dictionary
+        int node = next(0);
+        int last = NONE;
+        int depth = 0;
+
+        while (node != NONE && depth < s.length()) {
+            char character = character(node);
+            if (character == s.charAt(depth)) {
+                last = node;
+                node = suffix(node);
+                depth++;
+            } else if (character > s.charAt(depth)) {
+                // The "next" chains are sorted, the character cannot be further
+                return false;
+            } else {
+                node = next(node);
+            }
+        }
+        return depth == s.length() && last != NONE && present(last);
+    }
+
+    private int suffix(int node) {
+        return base.getInt(HEADER_BYTES + node * RECORD_BYTES);
+    }
+
+    private int next(int node) {
+        return base.getInt(HEADER_BYTES + node * RECORD_BYTES + 4);
+    }
+
+    private char character(int node) {
+        return base.getChar(HEADER_BYTES + node * RECORD_BYTES + 8);
+    }
+
+    private boolean present(int node) {
+        return (base.getShort(HEADER_BYTES + node * RECORD_BYTES + 10) & FLAG_PRESENT) != 0;
+    }
+
+    /**
+     * Writes the records of a snapshot file.
+     * The nodes must be given in the order of their indices, the first one being the start node.
+     * The file is written aside and only moved to its destination by {@link #commit()}, so that a failure never
+     * leaves a truncated snapshot behind.
+     */
+    static final class SnapshotWriter implements AutoCloseable {
+
+        private final Path path;
+        private final Path temporary;
+        private final DataOutputStream out;
+        private int nodes = 0;
+        private long size;
+
+        /**
+         * Create a new snapshot writer
+         *
+         * @param path         the snapshot file
+         * @param emptyPresent true if the empty string is in the dictionary
+         * @throws IOException if the file cannot be written
+         */
+        SnapshotWriter(Path path, boolean emptyPresent) throws IOException {
+            this.path = path;
+            this.temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16));
+            this.size = emptyPresent ? 1 : 0;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(emptyPresent ? FLAG_PRESENT : 0);
+            // The counts are only known at the end, they are filled in by commit()
+            out.writeInt(0);
+            out.writeLong(0L);
+        }
+
+        /**
+         * Writes the record of the next node
+         *
+         * @param character the character of the node
+         * @param present   true if the string leading to the node has been inserted
+         * @param suffix    the index of the suffix node, or -1
+         * @param next      the index of the next node, or -1
+         * @throws IOException if the file cannot be written
+         */
+        void node(char character, boolean present, int suffix, int next) throws IOException {
+            out.writeInt(suffix);
+            out.writeInt(next);
+            out.writeChar(character);
+            out.writeShort(present ? FLAG_PRESENT : 0);
+            nodes++;
+            if (present)
+                size++;
+        }
+
+        /**
+         * Flushes the records and moves the snapshot to its destination
+         *
+         * @throws IOException if the file cannot be written
+         */
+        void commit() throws IOException {
+            out.close();
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer counts = ByteBuffer.allocate(12).putInt(nodes).putLong(size).flip();
+                channel.write(counts, 12);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Discards the snapshot if it has not been committed
+         *
+         * @throws IOException if the temporary file cannot be deleted
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package fr.univnantes.pmc.project.impl;
+
+import fr.univnantes.pmc.project.api.AbortException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of strings split amongst several independent TL2 dictionaries, called shards.
+ * <p>
+ * Each string is routed to exactly one shard, and each shard has its own start node, its own monitor and its own
+ * version clock: insertions routed to different shards never contend with each other, so the throughput grows
+ * with the number of shards. Only the operations on the whole set have to visit every shard.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class ShardedDictionary {
+
+    /**
+     * The way strings are routed to the shards
+     */
+    public enum Routing {
+        /**
+         * Strings are spread by hash code, which balances the shards whatever the strings
+         */
+        HASH,
+        /**
+         * Strings are routed by ranges of their first character, so that the shards are ordered.
+         * Strings sharing a long common prefix (like URLs) all end up in the same shard.
+         */
+        RANGE
+    }
+
+    private final TL2Dictionary[] shards;
+    private final Routing routing;
+
+    /**
+     * Create a new sharded dictionary routing strings by hash code
+     *
+     * @param shardCount the number of shards
+     */
+    public ShardedDictionary(int shardCount) {
+        this(shardCount, Routing.HASH);
+    }
+
+    /**
+     * Create a new sharded dictionary
+     *
+     * @param shardCount the number of shards
+     * @param routing    the way strings are routed to the shards
+     */
+    public ShardedDictionary(int shardCount, Routing routing) {
+        if (shardCount < 1)
+            throw new IllegalArgumentException("ShardedDictionary - shardCount must be positive: " + shardCount);
+        this.routing = routing;
+        this.shards = new TL2Dictionary[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            // Each shard is its own STM domain
+            shards[i] = new TL2Dictionary(new AtomicLong(0L));
+        }
+    }
+
+    /**
+     * Adds the specified string to this set if it is not already present.
+     *
+     * @param s The string that is being inserted in the set
+     * @return true if s was not already inserted, false otherwise
+     * @throws AbortException if the insertion in the shard is aborted
+     */
+    public boolean add(String s) throws AbortException {
+        return shards[shardOf(s)].add(s);
+    }
+
+    /**
+     * Check if the dictionary contains a string
+     *
+     * @param s the string to check
+     * @return true if the dictionary contains the string, false otherwise
+     * @throws AbortException if the lookup in the shard is aborted
+     */
+    public boolean contains(String s) throws AbortException {
+        return shards[shardOf(s)].contains(s);
+    }
+
+    /**
+     * Get the number of strings in the set, summed over the shards
+     *
+     * @return the number of strings in the set
+     */
+    public long size() {
+        long size = 0;
+        for (TL2Dictionary shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    /**
+     * Get the number of nodes of the shards
+     *
+     * @return the number of nodes of the dictionary
+     */
+    public long nodeCount() {
+        long nodes = 0;
+        for (TL2Dictionary shard : shards)
+            nodes += shard.nodeCount();
+        return nodes;
+    }
+
+    /**
+     * Get an estimation of the memory used by the shards
+     *
+     * @return the approximate number of bytes used by the dictionary
+     */
+    public long approximateBytes() {
+        long bytes = 0;
+        for (TL2Dictionary shard : shards)
+            bytes += shard.approximateBytes();
+        return bytes;
+    }
+
+    /**
+     * Get the number of shards
+     *
+     * @return the number of shards
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Get the index of the shard in charge of a string
+     *
+     * @param s the string to route
+     * @return the index of its shard
+     */
+    private int shardOf(String s) {
+        if (routing == Routing.RANGE) {
+            // The 16 bits of the first character are scaled to the number of shards, which preserves the ordering
+            return s.isEmpty() ? 0 : (int) (((long) s.charAt(0) * shards.length) >>> 16);
+        }
+        int h = s.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+}
@@ -4,7 +4,12 @@ import fr.univnantes.pmc.project.api.AbortException;
 import fr.univnantes.pmc.project.api.Register;
 import fr.univnantes.pmc.project.api.Transaction;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * An implementation of a set of strings based on a dictionary.
@@ -20,10 +25,39 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class TL2Dictionary {
 
+    // Approximate footprint of a node on a 64-bit JVM with compressed references:
+    // the node itself (32 bytes) and its three registers (88 bytes each, with their atomic fields)
+    private static final long NODE_BYTES = 296;
+
     // We start with a first node, to simplify the algorithm, that encodes the smallest non-empty string "\0".
     private final Node start = new Node('\0', null);
     // The empty string is stored separately
     private final AtomicBoolean emptyAbsent = new AtomicBoolean(true);
+    // The transaction used by every operation, serialized by the monitor of the dictionary
+    private final Transaction transaction;
+    // Number of strings inserted, only updated by the first insertion of a string
+    private final LongAdder size = new LongAdder();
+    // Number of nodes reachable from the start node, only updated by committed insertions
+    private final LongAdder nodes = new LongAdder();
+    // Number of nodes created by the running insertion, guarded by the monitor of the dictionary
+    private int createdNodes;
+
+    /**
+     * Create a new dictionary whose registers are dated by the global version clock
+     */
+    public TL2Dictionary() {
+        this.transaction = new TL2Transaction();
+    }
+
+    /**
+     * Create a new dictionary whose registers are dated by its own version clock,
+     * so that it does not contend with the other dictionaries on the global one
+     *
+     * @param clock the version clock of the dictionary
+     */
+    public TL2Dictionary(AtomicLong clock) {
+        this.transaction = new TL2Transaction(clock);
+    }
 
     /**
      * Adds the specified string to this set if it is not already present.
@@ -35,12 +69,51 @@ public class TL2Dictionary {
      */
     public synchronized boolean add(String s) throws AbortException {
         if (s.isEmpty()) {
-            return emptyAbsent.getAndSet(false);
+            boolean absent = emptyAbsent.getAndSet(false);
+            if (absent)
+                size.increment();
+            return absent;
         }
-        start.transaction.begin();
-        start.add(start.transaction, s, 0);
-        start.transaction.tryToCommit();
-        return start.transaction.isCommitted();
+        createdNodes = 0;
+        transaction.begin();
+        boolean absent = start.add(transaction, s, 0);
+        transaction.tryToCommit();
+        if (!transaction.isCommitted())
+            return false;
+
+        // The nodes of an aborted insertion are never linked, so they are only counted now
+        nodes.add(createdNodes);
+        if (absent)
+            size.increment();
+        return absent;
+    }
+
+    /**
+     * Get the number of strings in the set.
+     * The count is maintained by the insertions, so it can be read without taking the monitor of the dictionary.
+     *
+     * @return the number of strings in the set
+     */
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * Get the number of nodes of the dictionary, excluding the start node
+     *
+     * @return the number of nodes of the dictionary
+     */
+    public long nodeCount() {
+        return nodes.sum();
+    }
+
+    /**
+     * Get an estimation of the memory used by the nodes of the dictionary
+     *
+     * @return the approximate number of bytes used by the dictionary
+     */
+    public long approximateBytes() {
+        return (nodes.sum() + 1) * NODE_BYTES;
     }
 
     /**
@@ -50,25 +123,60 @@ public class TL2Dictionary {
      * @return true if the dictionary contains the string, false otherwise
      */
     public synchronized boolean contains(String s) throws AbortException {
-        Transaction transaction = this.start.transaction;
+        if (s.isEmpty()) {
+            return !emptyAbsent.get();
+        }
+        // Lookups also go through the transaction, starting it clears the registers read by the previous ones
+        transaction.begin();
         Node node = start.next.read(transaction);
-        if (node == null) return false;
-
+        Node last = null;
         int depth = 0;
-        boolean found = false;
 
         while (node != null && depth < s.length()) {
 
             if (node.character == s.charAt(depth)) {
+                last = node;
                 node = node.suffix.read(transaction);
                 depth++;
-                found = true;
             } else {
                 node = node.next.read(transaction);
-                found = false;
             }
         }
-        return found && depth == s.length();
+        // The string must lead to a node, and must have been inserted, not only be a prefix of another string
+        return depth == s.length() && last != null && !last.absent.read(transaction);
+    }
+
+    /**
+     * Writes a snapshot of the dictionary in a file, that can be mapped in memory by {@link MappedDictionary#load(Path)}.
+     * Only the committed values of the registers are written.
+     *
+     * @param path the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void snapshot(Path path) throws IOException {
+        try (MappedDictionary.SnapshotWriter writer = new MappedDictionary.SnapshotWriter(path, !emptyAbsent.get())) {
+            // Nodes are numbered in breadth-first order, so the index of a node is known as soon as it is discovered
+            ArrayDeque<Node> queue = new ArrayDeque<>();
+            queue.add(start);
+            int discovered = 1;
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                Node suffix = node.suffix.getValue();
+                Node next = node.next.getValue();
+                int suffixIndex = -1;
+                int nextIndex = -1;
+                if (suffix != null) {
+                    suffixIndex = discovered++;
+                    queue.add(suffix);
+                }
+                if (next != null) {
+                    nextIndex = discovered++;
+                    queue.add(next);
+                }
+                writer.node(node.character, !node.absent.getValue(), suffixIndex, nextIndex);
+            }
+            writer.commit();
+        }
     }
 
     /**
@@ -84,7 +192,7 @@ public class TL2Dictionary {
      * <p>
      * A word s is contained in the dictionary if there is a node n whose path is s
      */
-    private static class Node {
+    private class Node {
         // The character of the string encoded in this node of the dictionary
         final char character;
         // True if the string leading to this node has already been inserted, false otherwise
@@ -97,13 +205,10 @@ public class TL2Dictionary {
         // and whose next character is strictly greater than the character encoded by this node
         final Register<Node> next;
 
-        Transaction transaction;
-
 
         Node(char character, Node next) {
             this.character = character;
             this.next = new RegisterImpl<Node>(next, 0);
-            this.transaction = new TL2Transaction();
         }
 
         /**
@@ -129,6 +234,7 @@ public class TL2Dictionary {
                 if (node == null || node.character > s.charAt(depth + 1)) {
                     node = new Node(s.charAt(depth + 1), node);
                     suffix.write(transaction, node);
+                    createdNodes++;
                 }
                 return node.add(transaction, s, depth + 1);
             }
@@ -139,6 +245,7 @@ public class TL2Dictionary {
             if (node == null || node.character > s.charAt(depth)) {
                 node = new Node(s.charAt(depth), node);
                 next.write(transaction, node);
+                createdNodes++;
             }
             return node.add(transaction, s, depth);
         }
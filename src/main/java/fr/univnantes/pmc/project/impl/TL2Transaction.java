@@ -18,6 +18,7 @@ import java.util.concurrent.atomic.AtomicLong;
 public class TL2Transaction implements Transaction {
 
     private static final AtomicLong CLOCK = new AtomicLong(0L);
+    private final AtomicLong clock;
     private final List<Register<?>> localReadingSet = new ArrayList<>();
     private final List<Register<?>> localWritingSet = new ArrayList<>();
     private boolean isCommitted = false;
@@ -25,6 +26,23 @@ public class TL2Transaction implements Transaction {
     private long birthdate;
 
 
+    /**
+     * Create a new transaction dated by the global version clock
+     */
+    public TL2Transaction() {
+        this(CLOCK);
+    }
+
+    /**
+     * Create a new transaction dated by a given version clock.
+     * Transactions using different clocks must never access the same registers.
+     *
+     * @param clock the version clock of the registers accessed by the transaction
+     */
+    public TL2Transaction(AtomicLong clock) {
+        this.clock = clock;
+    }
+
     /**
      * Begin the transaction
      */
@@ -32,7 +50,7 @@ public class TL2Transaction implements Transaction {
     public void begin() {
         localReadingSet.clear();
         localWritingSet.clear();
-        birthdate = CLOCK.get();
+        birthdate = clock.get();
     }
 
 
@@ -57,7 +75,7 @@ public class TL2Transaction implements Transaction {
         }
 
         // Write down the committed date and increment it for the next transaction
-        commitDate = CLOCK.getAndIncrement();
+        commitDate = clock.getAndIncrement();
 
         // We commit all the write registers
         for (Register<?> register : localWritingSet) {
@@ -125,7 +143,7 @@ public class TL2Transaction implements Transaction {
         // If a register is already locked by another
         // transaction, we throw an abort exception,
         // and we will continue to release the other locks
-        for (Register<?> register : localReadingSet) {
+        for (Register<?> register : localWritingSet) {
             try {
                 register.unlock(this);
             } catch (AbortException e) {
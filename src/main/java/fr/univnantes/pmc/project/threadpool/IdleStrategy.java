@@ -0,0 +1,49 @@
+package fr.univnantes.pmc.project.threadpool;
+
+/**
+ * What a worker of the ThreadPool does while the task queue is empty
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public enum IdleStrategy {
+
+    /**
+     * Poll the queue continuously, with the lowest latency but a whole core per idle worker
+     */
+    BUSY_SPIN,
+
+    /**
+     * Spin for a short while, then yield the processor between polls
+     */
+    YIELD,
+
+    /**
+     * Spin, then yield, then park until a task is submitted, so that idle workers cost nothing
+     */
+    PARK;
+
+    // Number of polls made while spinning before yielding
+    static final int SPIN_ROUNDS = 100;
+    // Number of polls made while yielding before parking
+    static final int YIELD_ROUNDS = 10;
+
+    /**
+     * Gets the strategy matching a command line value
+     *
+     * @param name one of "spin", "yield" or "park"
+     * @return the matching strategy
+     */
+    public static IdleStrategy fromName(String name) {
+        switch (name) {
+            case "spin":
+                return BUSY_SPIN;
+            case "yield":
+                return YIELD;
+            case "park":
+                return PARK;
+            default:
+                throw new IllegalArgumentException("Unknown idle strategy: " + name);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package fr.univnantes.pmc.project.threadpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, with a bounded relative error in the style of HdrHistogram.
+ * <p>
+ * Each power of two is split in 16 buckets of equal width, so a recorded value is known within 6.25% whatever its
+ * magnitude, and recording is a single array increment. Only one thread records values in a histogram, so the
+ * increments need no atomic operation; any thread can read it.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Durations from 2^41 ns, about 36 minutes, are recorded in the last bucket
+    private static final int MAX_EXPONENT = 40;
+    // The values under 16 have a bucket each, then 16 buckets per exponent
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a duration, only called by the owner of the histogram
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    void record(long nanos) {
+        int index = indexOf(nanos);
+        counts.lazySet(index, counts.get(index) + 1);
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one, only called by the owner of this histogram
+     *
+     * @param other the histogram to add
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0)
+                counts.lazySet(i, counts.get(i) + count);
+        }
+    }
+
+    /**
+     * Gets the number of recorded values
+     *
+     * @return the number of recorded values
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * Gets a percentile of the recorded values, rounded up to the end of its bucket
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value under which the given percentage of the values lie, 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return highestValueOf(i);
+        }
+        return highestValueOf(BUCKETS - 1);
+    }
+
+    /**
+     * Gets the largest recorded value, rounded up to the end of its bucket
+     *
+     * @return the largest value, 0 if nothing was recorded
+     */
+    public long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0)
+                return highestValueOf(i);
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the bucket of a value
+     *
+     * @param value the value
+     * @return the index of its bucket
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Gets the largest value falling in a bucket
+     *
+     * @param index the index of the bucket
+     * @return the largest value of the bucket
+     */
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,56 @@
+package fr.univnantes.pmc.project.threadpool;
+
+/**
+ * What a bounded ThreadPool does with a task submitted while its queue is full
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public enum RejectionPolicy {
+
+    /**
+     * The submitter waits until a task is taken from the queue.
+     * A worker of the pool runs the task itself, or keeps it in its local deque beyond the capacity when it already
+     * runs a few nested tasks; it only waits once its deque holds as many tasks as the capacity, or
+     * ThreadPool.MIN_OVERFLOW, and the workers stop waiting once all of them wait, as nothing would make room then.
+     */
+    BLOCK,
+
+    /**
+     * The submitter runs the task itself, which slows it down as much as the pool.
+     * A worker of the pool already running a few nested tasks keeps the task in its local deque beyond the capacity,
+     * and waits as with BLOCK once its deque is full.
+     */
+    CALLER_RUNS,
+
+    /**
+     * The oldest task waiting in the queue is discarded to make room for the new one
+     */
+    DISCARD_OLDEST,
+
+    /**
+     * The task is rejected with a RejectedExecutionException
+     */
+    ABORT;
+
+    /**
+     * Gets the policy matching a command line value
+     *
+     * @param name one of "block", "caller-runs", "discard-oldest" or "abort"
+     * @return the matching policy
+     */
+    public static RejectionPolicy fromName(String name) {
+        switch (name) {
+            case "block":
+                return BLOCK;
+            case "caller-runs":
+                return CALLER_RUNS;
+            case "discard-oldest":
+                return DISCARD_OLDEST;
+            case "abort":
+                return ABORT;
+            default:
+                throw new IllegalArgumentException("Unknown rejection policy: " + name);
+        }
+    }
+}
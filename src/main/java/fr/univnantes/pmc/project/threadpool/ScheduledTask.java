@@ -0,0 +1,132 @@
+package fr.univnantes.pmc.project.threadpool;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task scheduled on a ThreadPool to run after a delay, once or at a fixed rate.
+ * <p>
+ * The same object is the handle given back to the submitter and the entry of the timing wheel, so that a pending
+ * timer costs a single small object.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public final class ScheduledTask {
+
+    private static final int PENDING = 0;
+    private static final int FIRED = 1;
+    private static final int CANCELLED = 2;
+    private static final VarHandle STATE;
+    private static final VarHandle RUNNING;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STATE = lookup.findVarHandle(ScheduledTask.class, "state", int.class);
+            RUNNING = lookup.findVarHandle(ScheduledTask.class, "running", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ThreadPool pool;
+    final Runnable task;
+    // Period between two runs in nanoseconds, 0 for a task run once
+    final long period;
+    // Time of the next run, as given by System.nanoTime(), only moved by the timekeeper
+    volatile long deadline;
+    // Next timer of the same slot of the timing wheel, only used by the timekeeper
+    ScheduledTask next = null;
+
+    private volatile int state = PENDING;
+    // True while a run of a periodic task is in progress
+    private volatile boolean running = false;
+
+    /**
+     * Create a new ScheduledTask
+     *
+     * @param pool     the pool running the task
+     * @param task     the task to run
+     * @param deadline the time of the first run, as given by System.nanoTime()
+     * @param period   the period between two runs in nanoseconds, 0 to run the task once
+     */
+    ScheduledTask(ThreadPool pool, Runnable task, long deadline, long period) {
+        this.pool = pool;
+        this.task = task;
+        this.deadline = deadline;
+        this.period = period;
+    }
+
+    /**
+     * Cancels the task: it will not run anymore, but a run already started is not interrupted
+     *
+     * @return true if the task was cancelled, false if it already ran once or was already cancelled
+     */
+    public boolean cancel() {
+        if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+            return false;
+        pool.timerCancelled(this);
+        return true;
+    }
+
+    /**
+     * This method will return true if the task was cancelled
+     *
+     * @return true if the task was cancelled
+     */
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    /**
+     * This method will return true if the task will not run anymore
+     *
+     * @return true if the task ran once or was cancelled
+     */
+    public boolean isDone() {
+        return state != PENDING;
+    }
+
+    /**
+     * This method will return true if the task runs at a fixed rate
+     *
+     * @return true if the task is periodic
+     */
+    public boolean isPeriodic() {
+        return period > 0;
+    }
+
+    /**
+     * Gets the time left before the next run, which is only updated by the timekeeper once the run is due
+     *
+     * @param unit the unit of the result
+     * @return the remaining delay, negative if the run is late
+     */
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Marks a task run once as fired
+     *
+     * @return true if the task must be run, false if it was cancelled first
+     */
+    boolean fire() {
+        return STATE.compareAndSet(this, PENDING, FIRED);
+    }
+
+    /**
+     * Runs one occurrence of a periodic task, unless it was cancelled or the previous run is not finished yet
+     */
+    void runPeriodic() {
+        if (state != PENDING || !RUNNING.compareAndSet(this, false, true))
+            return;
+        try {
+            task.run();
+        } finally {
+            running = false;
+        }
+    }
+}
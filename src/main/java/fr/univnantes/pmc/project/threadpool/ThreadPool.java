@@ -1,8 +1,29 @@
 package fr.univnantes.pmc.project.threadpool;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import fr.univnantes.pmc.project.tools.ConcurrentQueue;
+import fr.univnantes.pmc.project.tools.JdkLinkedQueue;
 
 /**
  * My implementation of a working threadPool that will handle Future to make
@@ -16,28 +37,144 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * @author Quentin GOMES DOS REIS
  * @author Matthéo LÉCRIVAIN
  */
-public class ThreadPool {
+public final class ThreadPool {
+
+    private ConcurrentQueue<Runnable> taskQueue = null;
+    // Replaced by a new immutable list when an elastic pool adds or retires a worker
+    private volatile List<ThreadRunnable> runnables = List.of();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private final Object workersLock = new Object();
+    private final ThreadFactory threadFactory;
+    // Workers parked by the PARK idle strategy, woken one at a time by submit
+    private final ConcurrentLinkedQueue<ThreadRunnable> idleWorkers = new ConcurrentLinkedQueue<>();
+    private final IdleStrategy idleStrategy;
+    private final boolean workStealing;
+    private final int batchSize;
+    // No task is accepted anymore, the workers exit once the accepted ones are finished
+    private volatile boolean isShutdown = false;
+    // The tasks that were not started are discarded
+    private volatile boolean isStopped = false;
+
+    // A task is in flight from its submission until the end of its execution, so the pool is quiescent when
+    // both counters are equal. Striped counters keep the workers from contending on a single counter.
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    // Threads waiting in awaitQuiescence, the workers only look for quiescence when someone waits for it
+    private final Object quiescence = new Object();
+    private volatile int waiters = 0;
+
+    // Number of tasks waiting to be run, only maintained if the pool is bounded or has watermarks
+    private final boolean tracksQueue;
+    private final AtomicInteger queued = new AtomicInteger(0);
+    // Maximum number of waiting tasks, 0 if the pool is unbounded
+    private final int capacity;
+    private final RejectionPolicy rejectionPolicy;
+    // Submitters waiting for room in the queue with the BLOCK policy
+    private final Object notFull = new Object();
+    private volatile int blockedSubmitters = 0;
+    // Minimum number of tasks a worker keeps beyond the capacity before waiting for room, so that the workers of a
+    // small pool do not keep waiting for each other
+    static final int MIN_OVERFLOW = 1024;
+    // Workers among them, and the number of times they were all released at once, guarded by notFull
+    private int blockedWorkers = 0;
+    private long workerReleases = 0;
+    private final WatermarkListener watermarkListener;
+    private final int highWatermark;
+    private final int lowWatermark;
+    // True between the crossing of the high watermark and the crossing of the low watermark
+    private final AtomicBoolean aboveHighWatermark = new AtomicBoolean(false);
+
+    // There is no timer thread: one idle worker at a time holds the timekeeper role and sleeps until the next
+    // timer is due, and the busy workers fire the due timers between two tasks
+    private final AtomicReference<Thread> timekeeper = new AtomicReference<>(null);
+    // Timers scheduled since the last tick, moved to the wheel by the timekeeper
+    private final ConcurrentLinkedQueue<ScheduledTask> newTimers = new ConcurrentLinkedQueue<>();
+    // Only used by the holder of the timekeeper role
+    private final TimingWheel timingWheel = new TimingWheel();
+    private final List<ScheduledTask> dueTimers = new ArrayList<>();
+    // Timers neither fired nor cancelled
+    private final AtomicInteger pendingTimers = new AtomicInteger(0);
+    // Time of the next event of the wheel, so that the busy workers only tick it when needed
+    private volatile long nextTimerDeadline = Long.MAX_VALUE;
+    // Time until which the timekeeper sleeps, a timer due earlier must wake it up
+    private volatile long timekeeperWakeUp = Long.MAX_VALUE;
+
+    // Null unless the pool was built with metrics enabled
+    private final ThreadPoolMetrics metrics;
 
-    private ConcurrentLinkedQueue<Runnable> taskQueue = null;
-    private final List<ThreadRunnable> runnables = new ArrayList<>();
-    private final List<Thread> threads = new ArrayList<>();
-    private boolean isStopped = false;
+    // Elastic mode: a worker is added when a task waited too long, and a surplus worker leaves after staying idle
+    // for the keep-alive time. Waiting is much shorter than the keep-alive time, so the count does not flap.
+    private static final long GROW_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long GROW_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final boolean elastic;
+    private final int coreThreads;
+    private final int maxThreads;
+    private final long keepAliveNanos;
+    private final AtomicInteger workerCount;
+    private volatile long lastGrowth = System.nanoTime();
 
     /**
-     * Create a new ThreadPool
+     * What happens to a task submitted to a bounded pool
+     */
+    private enum Admission {
+        // A place in the queue was reserved for the task
+        QUEUED,
+        // The task must be run by the submitter
+        RUN_BY_CALLER,
+        // A place beyond the capacity was reserved for the task, in the local deque of the submitting worker
+        OVERFLOW,
+        // The task must be rejected with an exception
+        ABORTED,
+        // The pool was shut down while the submitter was waiting
+        SHUT_DOWN
+    }
+
+    /**
+     * Create a new ThreadPool whose idle workers park
      *
      * @param noOfThreads the number of threads that will be created
      */
     public ThreadPool(int noOfThreads) {
+        this(new Builder().threads(noOfThreads));
+    }
 
-        taskQueue = new ConcurrentLinkedQueue<Runnable>();
+    /**
+     * Create a new ThreadPool from a builder
+     *
+     * @param builder the configuration of the pool
+     */
+    private ThreadPool(Builder builder) {
+
+        taskQueue = builder.queue.get();
+        // The admission of the pool keeps a bounded queue from being full when a task is added
+        if (taskQueue.capacity() != Integer.MAX_VALUE && (builder.capacity == 0 || builder.capacity > taskQueue.capacity()))
+            throw new IllegalArgumentException("ThreadPool - a bounded queue needs a capacity of at most "
+                    + taskQueue.capacity() + ": " + builder.capacity);
+        idleStrategy = builder.idleStrategy;
+        workStealing = builder.workStealing;
+        batchSize = builder.batchSize;
+        capacity = builder.capacity;
+        rejectionPolicy = builder.rejectionPolicy;
+        watermarkListener = builder.watermarkListener;
+        highWatermark = builder.highWatermark;
+        lowWatermark = builder.lowWatermark;
+        tracksQueue = capacity > 0 || watermarkListener != null;
+        metrics = builder.metrics ? new ThreadPoolMetrics(this) : null;
+        threadFactory = builder.threadFactory;
+        coreThreads = builder.threads;
+        maxThreads = Math.max(builder.maxThreads, builder.threads);
+        elastic = maxThreads > coreThreads;
+        keepAliveNanos = builder.keepAliveNanos;
+        workerCount = new AtomicInteger(coreThreads);
 
         // Launch all threads
-        for (int i = 0; i < noOfThreads; i++) {
-            ThreadRunnable threadRunnable = new ThreadRunnable(taskQueue);
-            runnables.add(threadRunnable);
-            threads.add(new Thread(threadRunnable));
+        List<ThreadRunnable> workers = new ArrayList<>();
+        for (int i = 0; i < coreThreads; i++) {
+            ThreadRunnable threadRunnable = newWorker();
+            workers.add(threadRunnable);
+            threads.add(threadFactory.newThread(threadRunnable));
         }
+        runnables = List.copyOf(workers);
 
         // Start everyone
         for (Thread thread : threads) {
@@ -46,33 +183,1232 @@ public class ThreadPool {
     }
 
     /**
-     * This method will submit a task to the thread pool
+     * This method will submit a task to the thread pool, without taking any lock.
+     * In work-stealing mode, a task submitted by a worker of the pool is pushed in the local deque of the worker.
+     *
+     * If the pool is bounded and its queue is full, the rejection policy of the pool applies.
+     *
+     * @param task the task to run
+     * @return true if the task was accepted, false if the pool is shut down
+     * @throws RejectedExecutionException if the queue is full and the policy is ABORT
+     */
+    public boolean submit(Runnable task) {
+        // Counted before looking at the state, so that the workers of a pool being shut down
+        // cannot exit while this task may still be enqueued
+        submitted.increment();
+        if (isShutdown) {
+            taskCompleted();
+            return false;
+        }
+        return dispatch(task);
+    }
+
+    /**
+     * This method will submit several tasks at once.
+     * Unless the pool is bounded, the tasks are linked together first and appended to the shared queue with a
+     * single CAS, or pushed in the local deque of the submitting worker in work-stealing mode, and at most one
+     * idle worker is woken per task.
+     *
+     * @param tasks the tasks to run
+     * @return true if the tasks were accepted, false if the pool is shut down
+     * @throws RejectedExecutionException if the queue is full and the policy is ABORT, the tasks before the
+     *                                    rejected one are accepted and the following ones are not
+     */
+    public boolean submitAll(Collection<? extends Runnable> tasks) {
+        int count = tasks.size();
+        if (count == 0)
+            return !isShutdown;
+        submitted.add(count);
+        if (isShutdown) {
+            tasksCompleted(count);
+            return false;
+        }
+
+        if (tracksQueue) {
+            // Each task needs its own place in the queue. Whatever stops the loop, even an error thrown by a task
+            // run by the caller, the tasks not dispatched yet will never complete.
+            int dispatched = 0;
+            try {
+                for (Runnable task : tasks) {
+                    dispatched++;
+                    if (!dispatch(task))
+                        return false;
+                }
+                return true;
+            } finally {
+                tasksCompleted(count - dispatched);
+            }
+        }
+
+        Collection<? extends Runnable> batch = tasks;
+        if (metrics != null || elastic) {
+            List<Runnable> timed = new ArrayList<>(count);
+            for (Runnable task : tasks)
+                timed.add(new TimedTask(task));
+            batch = timed;
+        }
+        ThreadRunnable worker = workStealing ? ThreadRunnable.current() : null;
+        boolean local = worker != null && worker.belongsTo(this);
+        if (local) {
+            for (Runnable task : batch)
+                worker.pushLocal(task);
+        } else {
+            taskQueue.enqueueAll(batch);
+        }
+        if (idleStrategy == IdleStrategy.PARK) {
+            for (int i = 0; i < count && wakeIdleWorker(); i++) {
+                // One idle worker woken per task, until none is left
+            }
+        }
+        if (elastic && tooLong(local ? worker.oldestLocalTask() : taskQueue.peek()))
+            grow();
+        return true;
+    }
+
+    /**
+     * Queues a task already counted as submitted, applying the rejection policy if the pool is bounded
+     *
+     * @param task the task to run
+     * @return true if the task was accepted, false if the pool was shut down while waiting for room
+     * @throws RejectedExecutionException if the queue is full and the policy is ABORT
+     */
+    private boolean dispatch(Runnable task) {
+        boolean overflow = false;
+        if (tracksQueue) {
+            switch (admit()) {
+                case RUN_BY_CALLER:
+                    try {
+                        ThreadRunnable caller = ThreadRunnable.current();
+                        if (caller != null && caller.belongsTo(this))
+                            caller.runInline(task);
+                        else
+                            task.run();
+                    } finally {
+                        taskCompleted();
+                    }
+                    return true;
+                case OVERFLOW:
+                    overflow = true;
+                    break;
+                case ABORTED:
+                    taskCompleted();
+                    throw new RejectedExecutionException("ThreadPool - submit: The queue is full");
+                case SHUT_DOWN:
+                    taskCompleted();
+                    return false;
+                default:
+                    break;
+            }
+        }
+        if (metrics != null || elastic)
+            task = new TimedTask(task);
+        ThreadRunnable worker = workStealing || overflow ? ThreadRunnable.current() : null;
+        boolean local;
+        if (overflow) {
+            worker.pushOverflow(task);
+            local = true;
+        } else {
+            local = worker != null && worker.belongsTo(this) && worker.pushLocal(task);
+        }
+        if (!local && !taskQueue.enqueue(task)) {
+            taskCompleted();
+            throw new RejectedExecutionException("ThreadPool - submit: The queue is full");
+        }
+        if (idleStrategy == IdleStrategy.PARK)
+            wakeIdleWorker();
+        // The oldest task waiting behind the new one tells whether the workers keep up
+        if (elastic && tooLong(local ? worker.oldestLocalTask() : taskQueue.peek()))
+            grow();
+        return true;
+    }
+
+    /**
+     * This method will submit a task computing a result to the thread pool
+     *
+     * @param task the task to run
+     * @param <T>  the type of the result
+     * @return a future completed with the result of the task, or failed with a RejectedExecutionException if the
+     * pool is shut down or rejects the task. Cancelling the future before the task starts prevents it from running.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable runnable = () -> {
+            // The future was cancelled while the task was waiting
+            if (future.isDone())
+                return;
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+        try {
+            if (!submit(runnable))
+                future.completeExceptionally(new RejectedExecutionException("ThreadPool - submit: The pool is shut down"));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * This method will run an action on the pool once a stage completes, typically an asynchronous I/O operation.
+     * The action is in flight from now on, so quiescence and shutdown wait for the stage as well; no worker is held
+     * meanwhile. When the stage completes, the action is queued like a submitted task and the rejection policy of a
+     * bounded pool applies; it is dropped if the pool was stopped by shutdownNow.
+     *
+     * @param stage  the stage to wait for
+     * @param action the action to run with the result or the failure of the stage
+     * @param <T>    the type of the result
+     * @return true if the action was accepted, false if the pool is shut down
+     */
+    public <T> boolean submitOnCompletion(CompletionStage<T> stage, BiConsumer<? super T, ? super Throwable> action) {
+        submitted.increment();
+        if (isShutdown) {
+            taskCompleted();
+            return false;
+        }
+        stage.whenComplete((result, error) -> {
+            if (isStopped)
+                taskCompleted();
+            else
+                dispatch(() -> action.accept(result, error));
+        });
+        return true;
+    }
+
+    /**
+     * This method will run a task once after a delay.
+     * The task is in flight from now on, so quiescence and shutdown wait for it; a shut down pool still runs the
+     * delayed tasks it accepted. When the task is due, the rejection policy of a bounded pool applies as for submit.
+     *
+     * @param task  the task to run
+     * @param delay the time to wait before running the task
+     * @param unit  the unit of the delay
+     * @return the handle of the task, already cancelled if the pool is shut down
+     */
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        ScheduledTask timer = new ScheduledTask(this, task, System.nanoTime() + unit.toNanos(delay), 0);
+        pendingTimers.incrementAndGet();
+        submitted.increment();
+        if (isShutdown) {
+            timer.cancel();
+            return timer;
+        }
+        addTimer(timer);
+        return timer;
+    }
+
+    /**
+     * This method will run a task periodically, the first time after a delay.
+     * A run is skipped if the previous one is not finished yet, and the runs missed while the pool was too busy
+     * are not caught up. The task is not counted as in flight between two runs, so it does not prevent quiescence,
+     * and it is cancelled by the shutdown of the pool.
+     *
+     * @param task         the task to run
+     * @param initialDelay the time to wait before the first run
+     * @param period       the time between the starts of two runs
+     * @param unit         the unit of the delay and the period
+     * @return the handle of the task, already cancelled if the pool is shut down
+     */
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0)
+            throw new IllegalArgumentException("ThreadPool - scheduleAtFixedRate: period must be positive: " + period);
+        ScheduledTask timer = new ScheduledTask(this, task, System.nanoTime() + unit.toNanos(initialDelay),
+                unit.toNanos(period));
+        pendingTimers.incrementAndGet();
+        if (isShutdown) {
+            timer.cancel();
+            return timer;
+        }
+        addTimer(timer);
+        return timer;
+    }
+
+    /**
+     * Hands a new timer to the timekeeper, waking it up if the timer is due before the time it sleeps until
+     *
+     * @param timer the new timer
+     */
+    private void addTimer(ScheduledTask timer) {
+        newTimers.add(timer);
+        // The timekeeper publishes its wake-up time before looking at the new timers one last time,
+        // so either it sees this timer or this thread sees its wake-up time
+        Thread keeper = timekeeper.get();
+        if (keeper != null) {
+            if (timer.deadline < timekeeperWakeUp)
+                LockSupport.unpark(keeper);
+        } else if (idleStrategy == IdleStrategy.PARK) {
+            // A parked worker will take the timekeeper role
+            wakeIdleWorker();
+        }
+    }
+
+    /**
+     * Called by a ScheduledTask once it is cancelled
+     *
+     * @param timer the cancelled timer, left in the wheel until its slot is reached
      */
-    public synchronized boolean submit(Runnable task) {
-        return taskQueue.add(task);
+    void timerCancelled(ScheduledTask timer) {
+        pendingTimers.decrementAndGet();
+        if (!timer.isPeriodic())
+            taskCompleted();
     }
 
     /**
-     * This method will stop all threads in the pool
+     * Called by the workers between two tasks: fires the due timers, unless another worker is already doing it
+     */
+    void expireTimers() {
+        if (pendingTimers.get() == 0 || isStopped)
+            return;
+        if (newTimers.isEmpty() && System.nanoTime() < nextTimerDeadline)
+            return;
+        if (!timekeeper.compareAndSet(null, Thread.currentThread()))
+            return;
+        try {
+            tickTimers();
+        } finally {
+            timekeeper.set(null);
+        }
+    }
+
+    /**
+     * Sleeps until the next timer is due, then fires the due timers, called by a parked worker holding the
+     * timekeeper role
+     *
+     * @param worker the worker holding the timekeeper role
+     */
+    private void keepTime(ThreadRunnable worker) {
+        try {
+            timekeeperWakeUp = tickTimers();
+            if (newTimers.isEmpty() && !hasPendingTasks() && !worker.isStopped() && !isFinished()) {
+                long delay = timekeeperWakeUp - System.nanoTime();
+                if (delay > 0)
+                    LockSupport.parkNanos(this, delay);
+            }
+            // The tasks of the timers fired now must wake other workers, this one is already awake
+            worker.parked.compareAndSet(true, false);
+            if (!isStopped)
+                tickTimers();
+        } finally {
+            timekeeperWakeUp = Long.MAX_VALUE;
+            timekeeper.set(null);
+        }
+        // This worker leaves to run tasks, another one takes the role
+        if (pendingTimers.get() > 0 && hasPendingTasks())
+            wakeIdleWorker();
+    }
+
+    /**
+     * Moves the new timers to the wheel and fires the due ones, only called by the holder of the timekeeper role
+     *
+     * @return the time of the next event of the wheel, or Long.MAX_VALUE if it is empty
+     */
+    private long tickTimers() {
+        ScheduledTask timer;
+        while ((timer = newTimers.poll()) != null) {
+            if (!timer.isDone() && !timingWheel.add(timer))
+                dueTimers.add(timer);
+        }
+        long now = System.nanoTime();
+        timingWheel.advance(now, dueTimers);
+        try {
+            for (ScheduledTask due : dueTimers) {
+                fireTimer(due, now);
+            }
+        } finally {
+            dueTimers.clear();
+        }
+        long next = timingWheel.nextDeadline();
+        nextTimerDeadline = next;
+        return next;
+    }
+
+    /**
+     * Submits the task of a due timer, and puts a periodic timer back in the wheel
+     *
+     * @param timer the due timer
+     * @param now   the current time
+     */
+    private void fireTimer(ScheduledTask timer, long now) {
+        if (!timer.isPeriodic()) {
+            if (!timer.fire())
+                return;
+            pendingTimers.decrementAndGet();
+            if (isStopped) {
+                taskCompleted();
+                return;
+            }
+            try {
+                // Already counted as submitted when it was scheduled
+                dispatch(timer.task);
+            } catch (RejectedExecutionException e) {
+                // The ABORT policy dropped the task, it is already counted as completed
+            }
+            return;
+        }
+        if (timer.isDone())
+            return;
+        if (isShutdown) {
+            timer.cancel();
+            return;
+        }
+        try {
+            submit(timer::runPeriodic);
+        } catch (RejectedExecutionException e) {
+            // This run is skipped, the next one may find room in the queue
+        }
+        // The missed runs are skipped
+        do {
+            timer.deadline += timer.period;
+        } while (timer.deadline - now <= 0 || !timingWheel.add(timer));
+    }
+
+    /**
+     * Reserves a place in the queue for a new task, applying the rejection policy while the queue is full
+     *
+     * @return what must happen to the task
+     */
+    private Admission admit() {
+        if (capacity == 0) {
+            waiting(queued.incrementAndGet());
+            return Admission.QUEUED;
+        }
+        while (true) {
+            int count = queued.get();
+            if (count < capacity) {
+                if (queued.compareAndSet(count, count + 1)) {
+                    waiting(count + 1);
+                    return Admission.QUEUED;
+                }
+                continue;
+            }
+            ThreadRunnable worker;
+            Admission admission;
+            switch (rejectionPolicy) {
+                case CALLER_RUNS:
+                    worker = ThreadRunnable.current();
+                    if (worker == null || !worker.belongsTo(this))
+                        return Admission.RUN_BY_CALLER;
+                    admission = admitFromWorker(worker);
+                    if (admission != null)
+                        return admission;
+                    break;
+                case ABORT:
+                    return Admission.ABORTED;
+                case DISCARD_OLDEST:
+                    Runnable oldest = pollOldest();
+                    if (oldest != null) {
+                        // The place of the discarded task is given to the new one
+                        taskCompleted();
+                        return Admission.QUEUED;
+                    }
+                    break;
+                default:
+                    worker = ThreadRunnable.current();
+                    if (worker != null && worker.belongsTo(this)) {
+                        admission = admitFromWorker(worker);
+                        if (admission != null)
+                            return admission;
+                    } else if (!awaitNotFull(false)) {
+                        return Admission.SHUT_DOWN;
+                    }
+            }
+        }
+    }
+
+    /**
+     * Decides what happens to a task submitted by a worker of the pool while the queue is full. The worker runs
+     * the task nested in its current task; past a few nested tasks, its stack could overflow, so the task is kept
+     * in its local deque beyond the capacity instead, where the other workers can steal it. Once it keeps as many
+     * tasks as the capacity, or MIN_OVERFLOW for a smaller capacity, the worker waits for room like any other
+     * submitter; if every other worker already waits, nothing would make room, so they all go beyond the capacity.
+     *
+     * @param worker the submitting worker
+     * @return RUN_BY_CALLER or OVERFLOW, or null if room may have been made in the queue
+     */
+    private Admission admitFromWorker(ThreadRunnable worker) {
+        if (worker.mayRunInline())
+            return Admission.RUN_BY_CALLER;
+        if (worker.localTasks() >= Math.max(capacity, MIN_OVERFLOW) && awaitNotFull(true))
+            return null;
+        waiting(queued.incrementAndGet());
+        return Admission.OVERFLOW;
+    }
+
+    /**
+     * Waits until the queue is not full anymore
+     *
+     * @param worker true if the waiting thread is a worker of the pool, the workers being all released once they all
+     *               wait
+     * @return true if there may be room in the queue, false if the pool was shut down, the thread interrupted, or
+     * the workers released
+     */
+    private boolean awaitNotFull(boolean worker) {
+        synchronized (notFull) {
+            if (worker && blockedWorkers + 1 >= runnables.size()) {
+                workerReleases++;
+                notFull.notifyAll();
+                return false;
+            }
+            long releases = workerReleases;
+            blockedSubmitters++;
+            if (worker)
+                blockedWorkers++;
+            try {
+                while (queued.get() >= capacity) {
+                    if (isShutdown || worker && releases != workerReleases)
+                        return false;
+                    notFull.wait();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                blockedSubmitters--;
+                if (worker)
+                    blockedWorkers--;
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest waiting task, from the shared queue or else from the deques of the workers
+     *
+     * @return the removed task, or null if none was found
+     */
+    private Runnable pollOldest() {
+        Runnable task = taskQueue.dequeue();
+        if (task == null && (workStealing || batchSize > 1)) {
+            for (ThreadRunnable runnable : runnables) {
+                task = runnable.stealTask();
+                if (task != null)
+                    break;
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Notifies the watermark listener if a new task made the queue reach the high watermark
+     *
+     * @param count the number of waiting tasks, including the new one
+     */
+    private void waiting(int count) {
+        if (watermarkListener != null && count >= highWatermark && aboveHighWatermark.compareAndSet(false, true))
+            watermarkListener.onHighWatermark(count);
+    }
+
+    /**
+     * Called by the workers each time they take a task from the queue or a deque
+     *
+     * @param task the task taken
+     */
+    void taskDequeued(Runnable task) {
+        if (elastic && tooLong(task))
+            grow();
+        if (!tracksQueue)
+            return;
+        int count = queued.decrementAndGet();
+        if (watermarkListener != null && count <= lowWatermark && aboveHighWatermark.compareAndSet(true, false))
+            watermarkListener.onLowWatermark(count);
+        if (blockedSubmitters > 0)
+            signalNotFull();
+    }
+
+    /**
+     * Wakes the submitters waiting for room in the queue
+     */
+    private void signalNotFull() {
+        synchronized (notFull) {
+            notFull.notifyAll();
+        }
+    }
+
+    /**
+     * This method will submit every task and wait until they are all completed.
+     * It must not be called from a task of a pool that may have no other thread available to run them.
+     *
+     * @param tasks the tasks to run
+     * @param <T>   the type of the results
+     * @return the completed futures of the tasks, in the same order
+     * @throws InterruptedException if the current thread was interrupted while waiting, the tasks are then cancelled
+     */
+    public <T> List<CompletableFuture<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(submit(task));
+        }
+        boolean completed = false;
+        try {
+            for (CompletableFuture<T> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException | CancellationException e) {
+                    // The failure is kept by the future
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                for (CompletableFuture<T> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * This method will submit every task and wait for the first one to succeed, the other ones are then cancelled.
+     * It must not be called from a task of a pool that may have no other thread available to run them.
+     *
+     * @param tasks the tasks to run
+     * @param <T>   the type of the results
+     * @return the result of the first task that succeeded
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws ExecutionException   if every task failed, with the failure of the last one as cause
+     */
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        if (tasks.isEmpty())
+            throw new IllegalArgumentException("ThreadPool - invokeAny: No task to run");
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(tasks.size());
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            CompletableFuture<T> future = submit(task);
+            futures.add(future);
+            future.whenComplete((value, error) -> {
+                if (error == null)
+                    result.complete(value);
+                else if (remaining.decrementAndGet() == 0)
+                    result.completeExceptionally(error);
+            });
+        }
+        try {
+            return result.get();
+        } finally {
+            for (CompletableFuture<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Gets a view of this pool as an ExecutorService, so that it can replace the executors of the JDK
+     *
+     * @return an ExecutorService running its tasks on this pool
      */
-    public synchronized void stop() {
-        this.isStopped = true;
+    public ExecutorService asExecutorService() {
+        return new ThreadPoolExecutorService(this);
+    }
+
+    /**
+     * Gets the runtime metrics of the pool
+     *
+     * @return the metrics, or null if the pool was not built with metrics enabled
+     */
+    public ThreadPoolMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets an estimation of the number of tasks waiting to be run
+     *
+     * @param active the number of tasks running now
+     * @return the approximate number of waiting tasks
+     */
+    long queueDepth(int active) {
+        if (tracksQueue)
+            return queued.get();
+        // Every task in flight that is neither running nor delayed is waiting
+        long done = completed.sum();
+        return Math.max(0, submitted.sum() - done - active - pendingTimers.get());
+    }
+
+    /**
+     * This method will stop all threads in the pool, the tasks that were not started are discarded
+     */
+    public void stop() {
+        shutdownNow();
+    }
+
+    /**
+     * This method will stop accepting tasks. The tasks already accepted are still run, including the ones they
+     * submit before the shutdown, and the threads exit once they are all finished.
+     */
+    public void shutdown() {
+        isShutdown = true;
+        // A parked timekeeper must wake up to drop the periodic timers
+        Thread keeper = timekeeper.get();
+        if (keeper != null)
+            LockSupport.unpark(keeper);
+        if (isQuiescent())
+            signalQuiescence();
+        signalNotFull();
+    }
+
+    /**
+     * This method will stop accepting tasks, discard the tasks that were not started and the pending timers,
+     * and interrupt the threads
+     *
+     * @return the discarded tasks, including the delayed tasks that were not due yet
+     */
+    public synchronized List<Runnable> shutdownNow() {
+        isShutdown = true;
+        isStopped = true;
+        List<Runnable> pending = new ArrayList<>();
+        Runnable task;
+        while ((task = taskQueue.dequeue()) != null) {
+            pending.add(task);
+        }
         for (ThreadRunnable runnable : runnables) {
+            runnable.drainLocalTasks(pending);
             runnable.stop();
         }
+        // The tasks are given back as they were submitted, a pool with metrics or elastic having wrapped them
+        pending.replaceAll(t -> t instanceof TimedTask ? ((TimedTask) t).task : t);
+        // The delayed tasks never took a place in the queue
+        int dequeued = pending.size();
+        discardTimers(pending);
+        // The discarded tasks will never complete
+        completed.add(pending.size());
+        if (tracksQueue)
+            queued.addAndGet(-dequeued);
+        signalQuiescence();
+        signalNotFull();
+        return pending;
+    }
+
+    /**
+     * Discards every timer that did not fire, called once the workers are stopped
+     *
+     * @param pending the list receiving the tasks of the discarded delayed tasks
+     */
+    private void discardTimers(List<Runnable> pending) {
+        // The wheel can only be emptied by the holder of the timekeeper role, which the stopped workers release
+        Thread current = Thread.currentThread();
+        boolean owner = timekeeper.get() == current;
+        while (!owner && !timekeeper.compareAndSet(null, current))
+            Thread.yield();
+        try {
+            List<ScheduledTask> timers = new ArrayList<>();
+            ScheduledTask timer;
+            while ((timer = newTimers.poll()) != null)
+                timers.add(timer);
+            timingWheel.clear(timers);
+            for (ScheduledTask t : timers) {
+                if (t.isPeriodic()) {
+                    t.cancel();
+                } else if (t.fire()) {
+                    // Counted as completed with the other discarded tasks
+                    pendingTimers.decrementAndGet();
+                    pending.add(t.task);
+                }
+            }
+            nextTimerDeadline = Long.MAX_VALUE;
+        } finally {
+            if (!owner)
+                timekeeper.set(null);
+        }
+    }
+
+    /**
+     * This method will wait until all tasks are finished, including the tasks submitted by running tasks
+     */
+    public void waitUntilAllTasksFinished() {
+        try {
+            awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * This method will wait until all tasks are finished
+     * This method will wait until no task is queued or running.
+     * The waiting thread is woken by the worker finishing the last task, not by polling.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if the pool is quiescent, false if the timeout elapsed before
+     * @throws InterruptedException if the current thread was interrupted while waiting
      */
-    public synchronized void waitUntilAllTasksFinished() {
-        while (this.taskQueue.size() > 0) {
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (quiescence) {
+            waiters++;
             try {
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                while (!isQuiescent()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        return false;
+                    TimeUnit.NANOSECONDS.timedWait(quiescence, remaining);
+                }
+                return true;
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * This method will return true if no task is queued or running.
+     * Once true, it stays true until a task is submitted from outside of the pool.
+     *
+     * @return true if the pool is quiescent
+     */
+    public boolean isQuiescent() {
+        // The completions are read first: as a task is always submitted before it completes,
+        // reading the same value afterwards for the submissions means both were equal at that time
+        long done = completed.sum();
+        return submitted.sum() == done;
+    }
+
+    /**
+     * This method will return true if the pool does not accept tasks anymore
+     *
+     * @return true if the pool is shut down or stopped
+     */
+    public boolean isShutdown() {
+        return isShutdown;
+    }
+
+    /**
+     * This method will return true if the pool is stopped
+     *
+     * @return true if the pool is stopped
+     */
+    public boolean isStopped() {
+        return isStopped;
+    }
+
+    /**
+     * This method will return true once every thread of a shut down pool has exited
+     *
+     * @return true if the pool is shut down and all its threads are terminated
+     */
+    public boolean isTerminated() {
+        if (!isShutdown)
+            return false;
+        for (Thread thread : threads) {
+            if (thread.isAlive())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * This method will wait until every thread of a shut down pool has exited
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if all the threads are terminated, false if the timeout elapsed before
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : threads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return isTerminated();
+            TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+        }
+        return isTerminated();
+    }
+
+    /**
+     * Parks a worker until a task is submitted.
+     * <p>
+     * The worker registers itself as idle before checking the queue one last time: either the submitter sees the
+     * registration and unparks it, or the worker sees the task, so no wake-up can be lost.
+     *
+     * @param worker the worker that found the queue empty
+     */
+    void park(ThreadRunnable worker) {
+        worker.parked.set(true);
+        // A worker woken by itself is still queued, it must not be queued twice
+        if (worker.queued.compareAndSet(false, true))
+            idleWorkers.add(worker);
+
+        if (!hasPendingTasks() && !worker.isStopped() && !isFinished()) {
+            // The first idle worker finding pending timers sleeps only until the next one is due
+            if (pendingTimers.get() > 0 && timekeeper.compareAndSet(null, Thread.currentThread()))
+                keepTime(worker);
+            else if (elastic && workerCount.get() > coreThreads)
+                // A surplus worker wakes up after the keep-alive time to retire
+                LockSupport.parkNanos(this, keepAliveNanos);
+            else
+                LockSupport.park(this);
+        }
+
+        // If nobody claimed the worker, its entry stays in the queue and will be skipped by the submitters
+        worker.parked.compareAndSet(true, false);
+    }
+
+    /**
+     * Called by the workers each time they finish a task, whether it succeeded or not
+     */
+    void taskCompleted() {
+        completed.increment();
+        if ((waiters > 0 || isShutdown) && isQuiescent())
+            signalQuiescence();
+    }
+
+    /**
+     * Counts several tasks as completed at once
+     *
+     * @param count the number of tasks
+     */
+    private void tasksCompleted(int count) {
+        completed.add(count);
+        if ((waiters > 0 || isShutdown) && isQuiescent())
+            signalQuiescence();
+    }
+
+    /**
+     * Checks whether the workers can exit: the pool is shut down and every accepted task is finished
+     *
+     * @return true if the workers can exit
+     */
+    boolean isFinished() {
+        return isShutdown && isQuiescent();
+    }
+
+    /**
+     * Wakes the threads waiting for quiescence, and the parked workers of a pool being shut down
+     */
+    private void signalQuiescence() {
+        if (waiters > 0) {
+            synchronized (quiescence) {
+                quiescence.notifyAll();
+            }
+        }
+        if (isShutdown) {
+            for (ThreadRunnable runnable : runnables) {
+                runnable.unpark();
+            }
+        }
+    }
+
+    /**
+     * Checks whether tasks are waiting in the shared queue or in the local deques of the workers
+     *
+     * @return true if some task is waiting to be run
+     */
+    private boolean hasPendingTasks() {
+        if (!taskQueue.isEmpty())
+            return true;
+        if (workStealing) {
+            for (ThreadRunnable runnable : runnables) {
+                if (runnable.hasLocalTasks())
+                    return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * This method will return true if the number of workers follows the load
+     *
+     * @return true if the pool is elastic
+     */
+    boolean isElastic() {
+        return elastic;
+    }
+
+    /**
+     * Checks whether a task waited long enough in the queue to call for one more worker
+     *
+     * @param task the task, null if none was found
+     * @return true if the task waited too long
+     */
+    private boolean tooLong(Runnable task) {
+        return task instanceof TimedTask && ((TimedTask) task).waitNanos(System.nanoTime()) > GROW_WAIT_NANOS;
+    }
+
+    /**
+     * Adds a worker to an elastic pool, unless it reached its maximum size or a worker was just added
+     */
+    private void grow() {
+        long now = System.nanoTime();
+        if (now - lastGrowth < GROW_INTERVAL_NANOS || isShutdown)
+            return;
+        int count = workerCount.get();
+        if (count >= maxThreads || !workerCount.compareAndSet(count, count + 1))
+            return;
+        lastGrowth = now;
+
+        ThreadRunnable worker = newWorker();
+        Thread thread = threadFactory.newThread(worker);
+        synchronized (workersLock) {
+            List<ThreadRunnable> workers = new ArrayList<>(runnables);
+            workers.add(worker);
+            runnables = List.copyOf(workers);
+        }
+        threads.add(thread);
+        thread.start();
     }
 
-}
\ No newline at end of file
+    /**
+     * Removes a worker from an elastic pool if it stayed idle for the keep-alive time, unless the pool is at its
+     * core size
+     *
+     * @param worker    the idle worker, which exits if it is retired
+     * @param idleNanos the time the worker has been idle
+     * @return true if the worker is retired
+     */
+    boolean retire(ThreadRunnable worker, long idleNanos) {
+        if (idleNanos < keepAliveNanos)
+            return false;
+        int count;
+        do {
+            count = workerCount.get();
+            if (count <= coreThreads)
+                return false;
+        } while (!workerCount.compareAndSet(count, count - 1));
+
+        synchronized (workersLock) {
+            List<ThreadRunnable> workers = new ArrayList<>(runnables);
+            workers.remove(worker);
+            runnables = List.copyOf(workers);
+        }
+        threads.remove(Thread.currentThread());
+        if (metrics != null)
+            metrics.retire(worker.metrics());
+        return true;
+    }
+
+    /**
+     * Creates a worker, which still has to be given a thread
+     *
+     * @return the new worker
+     */
+    private ThreadRunnable newWorker() {
+        return new ThreadRunnable(this, taskQueue, idleStrategy, workStealing, batchSize, capacity > 0,
+                metrics != null ? new WorkerMetrics() : null);
+    }
+
+    /**
+     * Gets the workers of the pool
+     *
+     * @return the workers of the pool, as an immutable list
+     */
+    List<ThreadRunnable> workers() {
+        return runnables;
+    }
+
+    /**
+     * Unparks one idle worker, if any, skipping the workers that already woke up by themselves
+     *
+     * @return true if a worker was unparked, false if none was idle
+     */
+    private boolean wakeIdleWorker() {
+        ThreadRunnable worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            worker.queued.set(false);
+            if (worker.parked.compareAndSet(true, false)) {
+                worker.unpark();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds a ThreadPool
+     */
+    public static class Builder {
+
+        private int threads = 1;
+        private IdleStrategy idleStrategy = IdleStrategy.PARK;
+        private boolean workStealing = false;
+        private ThreadFactory threadFactory = Thread::new;
+        private int capacity = 0;
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.BLOCK;
+        private WatermarkListener watermarkListener = null;
+        private int highWatermark = 0;
+        private int lowWatermark = 0;
+        private boolean metrics = false;
+        private int maxThreads = 0;
+        private int batchSize = 1;
+        private long keepAliveNanos = TimeUnit.SECONDS.toNanos(10);
+        private Supplier<ConcurrentQueue<Runnable>> queue = JdkLinkedQueue::new;
+
+        /**
+         * Sets the number of threads of the pool
+         *
+         * @param threads the number of threads that will be created
+         * @return this builder
+         */
+        public Builder threads(int threads) {
+            if (threads < 1)
+                throw new IllegalArgumentException("ThreadPool - threads must be positive: " + threads);
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Makes the pool elastic: it starts with the number of threads given to threads(), its core size, and adds
+         * workers up to the maximum size while tasks wait in the queue for more than 10 ms. A worker above the core
+         * size leaves once it stays idle for the keep-alive time.
+         *
+         * @param maxThreads the maximum number of threads, the pool is not elastic if it is not above the core size
+         * @return this builder
+         */
+        public Builder maxThreads(int maxThreads) {
+            if (maxThreads < 1)
+                throw new IllegalArgumentException("ThreadPool - maxThreads must be positive: " + maxThreads);
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * Sets the time a worker above the core size of an elastic pool stays idle before leaving, 10 s by default
+         *
+         * @param keepAlive the keep-alive time
+         * @param unit      the unit of the keep-alive time
+         * @return this builder
+         */
+        public Builder keepAlive(long keepAlive, TimeUnit unit) {
+            if (keepAlive <= 0)
+                throw new IllegalArgumentException("ThreadPool - keepAlive must be positive: " + keepAlive);
+            this.keepAliveNanos = unit.toNanos(keepAlive);
+            return this;
+        }
+
+        /**
+         * Sets what the workers do while there is no task to run, PARK by default
+         *
+         * @param idleStrategy the idle strategy of the workers
+         * @return this builder
+         */
+        public Builder idleStrategy(IdleStrategy idleStrategy) {
+            this.idleStrategy = idleStrategy;
+            return this;
+        }
+
+        /**
+         * Gives each worker its own deque: the tasks submitted by a worker are pushed in its deque and run in LIFO
+         * order, and idle workers steal the oldest tasks of random victims.
+         * This removes the contention on the shared queue for tasks that recursively submit other tasks.
+         *
+         * @param workStealing true to enable work stealing, false by default
+         * @return this builder
+         */
+        public Builder workStealing(boolean workStealing) {
+            this.workStealing = workStealing;
+            return this;
+        }
+
+        /**
+         * Lets the workers take several tasks from the shared queue at once: the first one is run and the others
+         * are kept in the local deque of the worker, where they are run in the order of the queue. Without work
+         * stealing, the other workers cannot take them, so the batches should stay small if tasks may block.
+         *
+         * @param batchSize the maximum number of tasks taken at once, 1 by default
+         * @return this builder
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1)
+                throw new IllegalArgumentException("ThreadPool - batchSize must be positive: " + batchSize);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Sets the shared queue the tasks wait in, a ConcurrentLinkedQueue by default.
+         * A bounded queue, such as a RingBufferQueue, requires the pool to be bounded by capacity() to at most the
+         * size of the queue.
+         *
+         * @param queue creates the queue of the pool
+         * @return this builder
+         */
+        public Builder queue(Supplier<ConcurrentQueue<Runnable>> queue) {
+            this.queue = queue;
+            return this;
+        }
+
+        /**
+         * Bounds the number of tasks waiting in the pool, so that the memory used by the queue stays flat.
+         * The bound is not strict for the tasks submitted by the workers, which must not all wait for each other:
+         * each worker may keep as many tasks again in its local deque, at least ThreadPool.MIN_OVERFLOW, and the
+         * workers go beyond that when all of them wait for room. A task whose fan-out never ends must bound its own
+         * frontier.
+         *
+         * @param capacity the maximum number of waiting tasks, 0 for an unbounded pool (the default)
+         * @return this builder
+         */
+        public Builder capacity(int capacity) {
+            if (capacity < 0)
+                throw new IllegalArgumentException("ThreadPool - capacity must not be negative: " + capacity);
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sets what happens to a task submitted while the queue is full
+         *
+         * @param rejectionPolicy the rejection policy, BLOCK by default
+         * @return this builder
+         */
+        public Builder rejectionPolicy(RejectionPolicy rejectionPolicy) {
+            this.rejectionPolicy = rejectionPolicy;
+            return this;
+        }
+
+        /**
+         * Notifies a listener when the number of waiting tasks crosses the watermarks
+         *
+         * @param high     the number of waiting tasks from which the producers should slow down
+         * @param low      the number of waiting tasks under which the producers can resume
+         * @param listener the listener to notify
+         * @return this builder
+         */
+        public Builder watermarks(int high, int low, WatermarkListener listener) {
+            if (low < 0 || low >= high)
+                throw new IllegalArgumentException("ThreadPool - watermarks must satisfy 0 <= low < high: " + low + ", " + high);
+            this.highWatermark = high;
+            this.lowWatermark = low;
+            this.watermarkListener = listener;
+            return this;
+        }
+
+        /**
+         * Measures the queue depth, the wait and run times of the tasks and the utilization of the workers.
+         * The measures cost a few calls to System.nanoTime() and a small object per task.
+         *
+         * @param metrics true to enable the metrics, false by default
+         * @return this builder
+         * @see ThreadPool#metrics()
+         */
+        public Builder metrics(boolean metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Runs the workers on virtual threads instead of platform threads.
+         * A worker blocked on I/O then only costs a small heap-allocated stack, and its carrier thread runs other
+         * workers meanwhile, so thousands of workers can wait for the network at once. The idle strategy should
+         * stay PARK, as spinning virtual threads would hold their carrier threads.
+         *
+         * @param virtualThreads true to use virtual threads, false by default
+         * @return this builder
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.threadFactory = virtualThreads ? Thread.ofVirtual().name("ThreadPool-virtual-", 0).factory() : Thread::new;
+            return this;
+        }
+
+        /**
+         * Creates the pool and starts its threads
+         *
+         * @return the new ThreadPool
+         */
+        public ThreadPool build() {
+            return new ThreadPool(this);
+        }
+    }
+}
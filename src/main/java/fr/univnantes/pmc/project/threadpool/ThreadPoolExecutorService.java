@@ -0,0 +1,95 @@
+package fr.univnantes.pmc.project.threadpool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts our ThreadPool to the ExecutorService interface of the JDK, so that it can be used by code written for the
+ * JDK executors. The futures returned by this adapter are CompletableFuture, and can be composed.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class ThreadPoolExecutorService extends AbstractExecutorService {
+
+    private final ThreadPool pool;
+
+    /**
+     * Create a new adapter
+     *
+     * @param pool the pool running the tasks
+     */
+    public ThreadPoolExecutorService(ThreadPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Runs a task on the pool
+     *
+     * @param command the task to run
+     * @throws RejectedExecutionException if the pool is shut down
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (!pool.submit(command))
+            throw new RejectedExecutionException("ThreadPoolExecutorService - execute: The pool is shut down");
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        return pool.submit(task);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        return pool.submit(Executors.callable(task));
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        return pool.submit(Executors.callable(task, result));
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        return new ArrayList<>(pool.invokeAll(tasks));
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        return pool.invokeAny(tasks);
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return pool.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return pool.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return pool.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,247 @@
+package fr.univnantes.pmc.project.threadpool;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The runtime metrics of a ThreadPool built with metrics enabled: queue depth, task wait and run times, utilization
+ * of each worker and task counters.
+ * <p>
+ * The workers record their measures on their own, and this class only aggregates them when it is read, so the
+ * overhead on the tasks is limited to a few calls to System.nanoTime().
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public final class ThreadPoolMetrics implements ThreadPoolMetricsMXBean {
+
+    private final ThreadPool pool;
+
+    // The measures of the workers retired by an elastic pool, only written while holding the lock of this object
+    private final LatencyHistogram retiredWaitTime = new LatencyHistogram();
+    private final LatencyHistogram retiredRunTime = new LatencyHistogram();
+    private volatile long retiredBusyNanos = 0;
+    private volatile long retiredAliveNanos = 0;
+    private volatile long retiredTasks = 0;
+    private volatile long retiredFailed = 0;
+
+    /**
+     * Create the metrics of a pool
+     *
+     * @param pool the measured pool
+     */
+    ThreadPoolMetrics(ThreadPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server, so that they can be read with JConsole or VisualVM
+     *
+     * @param name the name of the pool in the MBean server
+     * @return the name under which the metrics were registered
+     * @throws JMException if the metrics cannot be registered, for instance if the name is already used
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("fr.univnantes.pmc.project:type=ThreadPool,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Prints a summary of the metrics periodically, from a periodic task of the pool itself
+     *
+     * @param period the time between two lines
+     * @param unit   the unit of the period
+     * @param out    the stream the lines are printed to
+     * @return the periodic task, to cancel it
+     */
+    public ScheduledTask logEvery(long period, TimeUnit unit, PrintStream out) {
+        return pool.scheduleAtFixedRate(() -> out.println(this), period, period, unit);
+    }
+
+    /**
+     * Keeps the measures of a worker leaving the pool
+     *
+     * @param worker the measures of the retired worker
+     */
+    synchronized void retire(WorkerMetrics worker) {
+        long now = System.nanoTime();
+        retiredWaitTime.add(worker.waitTime);
+        retiredRunTime.add(worker.runTime);
+        retiredBusyNanos += worker.busyNanos(now);
+        retiredAliveNanos += worker.aliveNanos(now);
+        retiredTasks += worker.tasks();
+        retiredFailed += worker.failed();
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return workers().size();
+    }
+
+    @Override
+    public int getActiveCount() {
+        int active = 0;
+        for (ThreadRunnable worker : workers()) {
+            if (worker.metrics().isBusy())
+                active++;
+        }
+        return active;
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return pool.queueDepth(getActiveCount());
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        long tasks = retiredTasks;
+        for (ThreadRunnable worker : workers())
+            tasks += worker.metrics().tasks();
+        return tasks;
+    }
+
+    @Override
+    public long getFailedTaskCount() {
+        long failed = retiredFailed;
+        for (ThreadRunnable worker : workers())
+            failed += worker.metrics().failed();
+        return failed;
+    }
+
+    @Override
+    public long getWaitTimeMedian() {
+        return toMicros(waitTime().percentile(50));
+    }
+
+    @Override
+    public long getWaitTime99thPercentile() {
+        return toMicros(waitTime().percentile(99));
+    }
+
+    @Override
+    public long getWaitTimeMax() {
+        return toMicros(waitTime().max());
+    }
+
+    @Override
+    public long getRunTimeMedian() {
+        return toMicros(runTime().percentile(50));
+    }
+
+    @Override
+    public long getRunTime99thPercentile() {
+        return toMicros(runTime().percentile(99));
+    }
+
+    @Override
+    public long getRunTimeMax() {
+        return toMicros(runTime().max());
+    }
+
+    @Override
+    public double getUtilization() {
+        long now = System.nanoTime();
+        long busy = retiredBusyNanos;
+        long alive = retiredAliveNanos;
+        for (ThreadRunnable worker : workers()) {
+            busy += worker.metrics().busyNanos(now);
+            alive += worker.metrics().aliveNanos(now);
+        }
+        return alive == 0 ? 0 : (double) busy / alive;
+    }
+
+    @Override
+    public double[] getWorkerUtilizations() {
+        long now = System.nanoTime();
+        List<ThreadRunnable> workers = workers();
+        double[] utilizations = new double[workers.size()];
+        for (int i = 0; i < utilizations.length; i++) {
+            WorkerMetrics metrics = workers.get(i).metrics();
+            long alive = metrics.aliveNanos(now);
+            utilizations[i] = alive == 0 ? 0 : (double) metrics.busyNanos(now) / alive;
+        }
+        return utilizations;
+    }
+
+    /**
+     * Merges the wait times measured by every worker
+     *
+     * @return the histogram of the wait times
+     */
+    public LatencyHistogram waitTime() {
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(retiredWaitTime);
+        for (ThreadRunnable worker : workers())
+            merged.add(worker.metrics().waitTime);
+        return merged;
+    }
+
+    /**
+     * Merges the run times measured by every worker
+     *
+     * @return the histogram of the run times
+     */
+    public LatencyHistogram runTime() {
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(retiredRunTime);
+        for (ThreadRunnable worker : workers())
+            merged.add(worker.metrics().runTime);
+        return merged;
+    }
+
+    /**
+     * Gets a one-line summary of the metrics
+     *
+     * @return the summary
+     */
+    @Override
+    public String toString() {
+        LatencyHistogram waitTime = waitTime();
+        LatencyHistogram runTime = runTime();
+        return String.format("ThreadPool: workers=%d active=%d queued=%d completed=%d failed=%d"
+                        + " wait(p50/p99/max)=%s/%s/%s run(p50/p99/max)=%s/%s/%s utilization=%.0f%%",
+                getWorkerCount(), getActiveCount(), getQueueDepth(), getCompletedTaskCount(), getFailedTaskCount(),
+                format(waitTime.percentile(50)), format(waitTime.percentile(99)), format(waitTime.max()),
+                format(runTime.percentile(50)), format(runTime.percentile(99)), format(runTime.max()),
+                100 * getUtilization());
+    }
+
+    /**
+     * Gets the workers of the measured pool
+     *
+     * @return the workers
+     */
+    private List<ThreadRunnable> workers() {
+        return pool.workers();
+    }
+
+    /**
+     * Converts a duration to microseconds
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the duration in microseconds
+     */
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Formats a duration with a readable unit
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the formatted duration
+     */
+    private static String format(long nanos) {
+        if (nanos < 1_000_000)
+            return String.format("%.1fus", nanos / 1e3);
+        if (nanos < 1_000_000_000)
+            return String.format("%.1fms", nanos / 1e6);
+        return String.format("%.1fs", nanos / 1e9);
+    }
+}
@@ -0,0 +1,37 @@
+package fr.univnantes.pmc.project.threadpool;
+
+/**
+ * The metrics of a ThreadPool, as exposed through JMX.
+ * The durations are in microseconds.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public interface ThreadPoolMetricsMXBean {
+
+    int getWorkerCount();
+
+    int getActiveCount();
+
+    long getQueueDepth();
+
+    long getCompletedTaskCount();
+
+    long getFailedTaskCount();
+
+    long getWaitTimeMedian();
+
+    long getWaitTime99thPercentile();
+
+    long getWaitTimeMax();
+
+    long getRunTimeMedian();
+
+    long getRunTime99thPercentile();
+
+    long getRunTimeMax();
+
+    double getUtilization();
+
+    double[] getWorkerUtilizations();
+}
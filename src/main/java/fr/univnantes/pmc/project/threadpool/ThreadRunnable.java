@@ -1,6 +1,12 @@
 package fr.univnantes.pmc.project.threadpool;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import fr.univnantes.pmc.project.tools.ConcurrentQueue;
 
 /**
  * This is the hearth of our custom ThreadPool this will make each threads able
@@ -12,17 +18,80 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  */
 public class ThreadRunnable implements Runnable {
 
-    private Thread thread = null;
-    private ConcurrentLinkedQueue<Runnable> taskQueue = null;
-    private boolean isStopped = false;
+    // The worker running on the current thread, if any
+    private static final ThreadLocal<ThreadRunnable> CURRENT = new ThreadLocal<>();
+
+    // Maximum number of tasks a worker runs nested in the task it took, each one taking room on its stack
+    static final int MAX_INLINE_DEPTH = 4;
+
+    private volatile Thread thread = null;
+    private ConcurrentQueue<Runnable> taskQueue = null;
+    private final ThreadPool pool;
+    private final IdleStrategy idleStrategy;
+    // The local deque of the worker in work-stealing or batch mode, or holding the tasks it submitted beyond the
+    // capacity of a bounded pool, null otherwise
+    private final WorkStealingDeque<Runnable> deque;
+    private final boolean workStealing;
+    // True if the pool has a capacity, the tasks kept beyond it can then be stolen even without work stealing
+    private final boolean bounded;
+    // Maximum number of tasks taken from the shared queue at once, the first one is run and the others are kept
+    // in the local deque
+    private final int batchSize;
+    private final List<Runnable> batch;
+    // The measures of the worker if the pool has metrics enabled, null otherwise
+    private final WorkerMetrics metrics;
+    private volatile boolean isStopped = false;
+    // Start of the current idle period of the worker in an elastic pool, 0 while it runs tasks
+    private long idleSince = 0;
+    // Number of tasks the worker is running nested in the task it took, only used by its own thread
+    private int inlineDepth = 0;
+
+    // True while the worker is parked, or about to park, waiting for a task
+    final AtomicBoolean parked = new AtomicBoolean(false);
+    // True while the worker is in the idle queue of the pool
+    final AtomicBoolean queued = new AtomicBoolean(false);
 
     /**
      * Create a new ThreadRunnable
      *
-     * @param queue the queue that will be used to fetch the tasks
+     * @param pool         the pool the worker belongs to
+     * @param queue        the queue that will be used to fetch the tasks
+     * @param idleStrategy what the worker does while the queue is empty
+     * @param workStealing true if the worker owns a deque that the other workers can steal from
+     * @param batchSize    the maximum number of tasks taken from the shared queue at once
+     * @param bounded      true if the pool has a capacity, which the tasks of the worker may go beyond
+     * @param metrics      the measures of the worker, or null if the pool has no metrics
      */
-    public ThreadRunnable(ConcurrentLinkedQueue<Runnable> queue) {
-        taskQueue = queue;
+    public ThreadRunnable(ThreadPool pool, ConcurrentQueue<Runnable> queue, IdleStrategy idleStrategy,
+                          boolean workStealing, int batchSize, boolean bounded, WorkerMetrics metrics) {
+        this.pool = pool;
+        this.taskQueue = queue;
+        this.idleStrategy = idleStrategy;
+        this.deque = workStealing || batchSize > 1 || bounded ? new WorkStealingDeque<>() : null;
+        this.workStealing = workStealing;
+        this.bounded = bounded;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the worker running on the current thread
+     *
+     * @return the current worker, or null if the current thread does not belong to a pool
+     */
+    static ThreadRunnable current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Checks whether this worker runs the tasks of a given pool
+     *
+     * @param pool the pool to check
+     * @return true if the worker belongs to the pool
+     */
+    boolean belongsTo(ThreadPool pool) {
+        return this.pool == pool;
     }
 
     /**
@@ -30,24 +99,252 @@ public class ThreadRunnable implements Runnable {
      */
     public void run() {
         this.thread = Thread.currentThread();
+        CURRENT.set(this);
+        int idleRounds = 0;
         while (!isStopped()) {
             try {
+                // The due timers are fired between two tasks, the pool has no timer thread
+                pool.expireTimers();
                 // Take a task from queue and runs it
-                Runnable task = taskQueue.poll();
-                if (task != null)
-                    task.run();
+                Runnable task = nextTask();
+                if (task != null) {
+                    idleRounds = 0;
+                    idleSince = 0;
+                    pool.taskDequeued(task);
+                    try {
+                        if (metrics != null)
+                            metrics.run(task);
+                        else
+                            task.run();
+                    } finally {
+                        pool.taskCompleted();
+                    }
+                } else {
+                    idleRounds = idle(idleRounds);
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
     }
 
+    /**
+     * Gets the next task to run: the newest task of the local deque, then the oldest task of the shared queue,
+     * then the oldest task of another worker
+     *
+     * @return the next task, or null if none was found
+     */
+    private Runnable nextTask() {
+        if (deque == null)
+            return taskQueue.dequeue();
+
+        Runnable task = deque.pop();
+        if (task == null)
+            task = pollBatch();
+        if (task == null && (workStealing || bounded))
+            task = steal();
+        return task;
+    }
+
+    /**
+     * Takes up to batchSize tasks from the shared queue in one go, and keeps all but the first one in the local
+     * deque, where the other workers can still steal them in work-stealing mode
+     *
+     * @return the oldest task taken, or null if the shared queue is empty
+     */
+    private Runnable pollBatch() {
+        int count = taskQueue.drainTo(batch, batchSize);
+        if (count == 0)
+            return null;
+        // Pushed from the newest, so that the local deque pops them in the order of the queue
+        for (int i = count - 1; i > 0; i--)
+            deque.push(batch.get(i));
+        Runnable task = batch.get(0);
+        batch.clear();
+        return task;
+    }
+
+    /**
+     * Tries to steal a task from every other worker once, starting from a random victim
+     *
+     * @return the stolen task, or null if none was found
+     */
+    private Runnable steal() {
+        List<ThreadRunnable> workers = pool.workers();
+        int count = workers.size();
+        int start = ThreadLocalRandom.current().nextInt(count);
+        for (int i = 0; i < count; i++) {
+            ThreadRunnable victim = workers.get((start + i) % count);
+            if (victim != this) {
+                Runnable task = victim.deque.steal();
+                if (task != null)
+                    return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pushes a task submitted by this worker in its local deque
+     *
+     * @param task the task to push
+     * @return true if the worker is in work-stealing mode, false if the task must go to the shared queue
+     */
+    boolean pushLocal(Runnable task) {
+        if (!workStealing)
+            return false;
+        deque.push(task);
+        return true;
+    }
+
+    /**
+     * Pushes a task submitted by this worker beyond the capacity of its pool in its local deque, where the worker
+     * finds it before the tasks of the shared queue, and the idle workers steal it even without work stealing
+     *
+     * @param task the task to push
+     */
+    void pushOverflow(Runnable task) {
+        deque.push(task);
+    }
+
+    /**
+     * Gets an estimation of the number of tasks in the local deque of this worker
+     *
+     * @return the approximate number of tasks
+     */
+    int localTasks() {
+        return deque == null ? 0 : deque.size();
+    }
+
+    /**
+     * Checks whether this worker may run one more task nested in the task it is running
+     *
+     * @return true if the nested tasks leave enough room on the stack of the worker
+     */
+    boolean mayRunInline() {
+        return inlineDepth < MAX_INLINE_DEPTH;
+    }
+
+    /**
+     * Runs a task submitted by this worker, nested in the task it is running, and measures it as any other task
+     *
+     * @param task the task to run
+     */
+    void runInline(Runnable task) {
+        inlineDepth++;
+        try {
+            if (metrics != null)
+                metrics.run(task);
+            else
+                task.run();
+        } finally {
+            inlineDepth--;
+        }
+    }
+
+    /**
+     * Steals the oldest task of the local deque of this worker
+     *
+     * @return the stolen task, or null if none was found
+     */
+    Runnable stealTask() {
+        return deque == null ? null : deque.steal();
+    }
+
+    /**
+     * Reads the oldest task of the local deque of this worker without removing it
+     *
+     * @return the oldest task, or null if none was found
+     */
+    Runnable oldestLocalTask() {
+        return deque == null ? null : deque.peek();
+    }
+
+    /**
+     * Moves the tasks of the local deque of this worker to a list
+     *
+     * @param tasks the list receiving the tasks
+     */
+    void drainLocalTasks(List<Runnable> tasks) {
+        if (deque == null)
+            return;
+        while (!deque.isEmpty()) {
+            Runnable task = deque.steal();
+            if (task != null)
+                tasks.add(task);
+        }
+    }
+
+    /**
+     * Checks whether the local deque of this worker seems to hold tasks
+     *
+     * @return true if tasks can be stolen from this worker
+     */
+    boolean hasLocalTasks() {
+        return deque != null && !deque.isEmpty();
+    }
+
+    /**
+     * Waits a little after finding the queue empty, according to the idle strategy
+     *
+     * @param idleRounds the number of times the queue was found empty in a row
+     * @return the updated number of times the queue was found empty in a row
+     */
+    private int idle(int idleRounds) {
+        if (pool.isFinished()) {
+            // Every accepted task is finished, the worker can exit
+            isStopped = true;
+            return 0;
+        }
+        if (pool.isElastic()) {
+            // A worker idle for longer than the keep-alive time leaves, unless the pool is at its core size
+            long now = System.nanoTime();
+            if (idleSince == 0) {
+                idleSince = now;
+            } else if (pool.retire(this, now - idleSince)) {
+                isStopped = true;
+                return 0;
+            }
+        }
+        if (idleStrategy == IdleStrategy.BUSY_SPIN || idleRounds < IdleStrategy.SPIN_ROUNDS) {
+            Thread.onSpinWait();
+        } else if (idleStrategy == IdleStrategy.YIELD || idleRounds < IdleStrategy.SPIN_ROUNDS + IdleStrategy.YIELD_ROUNDS) {
+            Thread.yield();
+        } else {
+            pool.park(this);
+            // An interrupt left by a task would make every following park return immediately
+            if (!isStopped())
+                Thread.interrupted();
+            return 0;
+        }
+        return idleRounds + 1;
+    }
+
+    /**
+     * Gets the measures of this worker
+     *
+     * @return the measures, or null if the pool has no metrics
+     */
+    WorkerMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Unparks the thread of this worker
+     */
+    void unpark() {
+        Thread thread = this.thread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
     /**
      * This method will stop the thread
      */
     public synchronized void stop() {
         isStopped = true;
-        thread.interrupt();
+        if (thread != null)
+            thread.interrupt();
     }
 
     /**
@@ -55,7 +352,7 @@ public class ThreadRunnable implements Runnable {
      *
      * @return true if the thread is stopped
      */
-    public synchronized boolean isStopped() {
+    public boolean isStopped() {
         return isStopped;
     }
-}
\ No newline at end of file
+}
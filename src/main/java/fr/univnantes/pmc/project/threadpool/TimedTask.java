@@ -0,0 +1,38 @@
+package fr.univnantes.pmc.project.threadpool;
+
+/**
+ * A task wrapped with the time it was queued, to measure how long it waited
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+final class TimedTask implements Runnable {
+
+    final Runnable task;
+    final long submitted;
+
+    /**
+     * Create a new TimedTask queued now
+     *
+     * @param task the task to run
+     */
+    TimedTask(Runnable task) {
+        this.task = task;
+        this.submitted = System.nanoTime();
+    }
+
+    /**
+     * Gets the time elapsed since the task was queued
+     *
+     * @param now the current time
+     * @return the waiting time in nanoseconds
+     */
+    long waitNanos(long now) {
+        return now - submitted;
+    }
+
+    @Override
+    public void run() {
+        task.run();
+    }
+}
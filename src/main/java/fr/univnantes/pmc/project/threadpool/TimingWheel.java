@@ -0,0 +1,197 @@
+package fr.univnantes.pmc.project.threadpool;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical timing wheel holding the pending timers of a ThreadPool.
+ * <p>
+ * Time is cut in ticks of one millisecond. Level 0 has one slot per tick for the next 64 ticks, and each following
+ * level has 64 slots each covering a whole turn of the level below. A timer is added in O(1) to the slot of the
+ * lowest level that can hold it, and moved down one level each time the wheel below completes a turn, until it
+ * expires from level 0. Cancelled timers are left in their slot and dropped when the slot is reached.
+ * <p>
+ * This class is not thread-safe: it is only used by the worker currently acting as timekeeper.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ * @see <a href="https://dl.acm.org/doi/10.1145/41457.37504">"Hashed and Hierarchical Timing Wheels"</a>
+ */
+final class TimingWheel {
+
+    static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    // Delay from which a timer does not fit in the wheel, about 4.6 hours: it waits in the farthest slot instead
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    // Origin of the ticks, as given by System.nanoTime()
+    private final long start;
+    private final ScheduledTask[][] slots = new ScheduledTask[LEVELS][SLOTS];
+    // Last tick processed
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     * Create a new empty TimingWheel starting now
+     */
+    TimingWheel() {
+        start = System.nanoTime();
+    }
+
+    /**
+     * Adds a timer to the wheel
+     *
+     * @param timer the timer to add
+     * @return true if the timer was added, false if it is already due and must be fired right away
+     */
+    boolean add(ScheduledTask timer) {
+        long deadline = timer.deadline - start;
+        // Rounded up, so that a timer never fires before its deadline
+        long tick = deadline <= 0 ? 0 : (deadline + TICK_NANOS - 1) / TICK_NANOS;
+        long delta = tick - currentTick;
+        if (delta <= 0)
+            return false;
+        if (delta >= SPAN)
+            tick = currentTick + SPAN - 1;
+
+        int level = 0;
+        while (delta >= (1L << (SLOT_BITS * (level + 1))) && level < LEVELS - 1)
+            level++;
+        int index = (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        timer.next = slots[level][index];
+        slots[level][index] = timer;
+        size++;
+        return true;
+    }
+
+    /**
+     * Moves the wheel forward to the current time
+     *
+     * @param now     the current time, as given by System.nanoTime()
+     * @param expired the list receiving the timers that are due
+     */
+    void advance(long now, List<ScheduledTask> expired) {
+        long nowTick = (now - start) / TICK_NANOS;
+        while (currentTick < nowTick) {
+            // The ticks without any event are skipped at once
+            long tick = nextTick();
+            if (tick > nowTick) {
+                currentTick = nowTick;
+                return;
+            }
+            currentTick = tick;
+            // The higher levels first, as a cascade may fill the slot of the level below that is reached too
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0)
+                    cascade(level, (int) (currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1), expired);
+            }
+            ScheduledTask timer = take(0, (int) currentTick & (SLOTS - 1));
+            while (timer != null) {
+                ScheduledTask next = timer.next;
+                timer.next = null;
+                expired.add(timer);
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * Gets the next time at which the wheel has something to do, either firing or cascading timers
+     *
+     * @return the time of the next event as given by System.nanoTime(), or Long.MAX_VALUE if the wheel is empty
+     */
+    long nextDeadline() {
+        long tick = nextTick();
+        return tick == Long.MAX_VALUE ? Long.MAX_VALUE : start + tick * TICK_NANOS;
+    }
+
+    /**
+     * Gets the number of timers in the wheel, including the cancelled ones not dropped yet
+     *
+     * @return the number of timers
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes every timer from the wheel
+     *
+     * @param timers the list receiving the timers
+     */
+    void clear(List<ScheduledTask> timers) {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int index = 0; index < SLOTS; index++) {
+                ScheduledTask timer = take(level, index);
+                while (timer != null) {
+                    ScheduledTask next = timer.next;
+                    timer.next = null;
+                    timers.add(timer);
+                    timer = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the next tick at which a slot holding timers is reached, at any level
+     *
+     * @return the next tick with an event, or Long.MAX_VALUE if the wheel is empty
+     */
+    private long nextTick() {
+        if (size == 0)
+            return Long.MAX_VALUE;
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            for (long turn = 1; turn <= SLOTS; turn++) {
+                long tick = ((currentTick >>> shift) + turn) << shift;
+                if (tick >= next)
+                    break;
+                if (slots[level][(int) (tick >>> shift) & (SLOTS - 1)] != null) {
+                    next = tick;
+                    break;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Moves the timers of a slot to the lower levels
+     *
+     * @param level   the level of the slot
+     * @param index   the index of the slot
+     * @param expired the list receiving the timers that became due
+     */
+    private void cascade(int level, int index, List<ScheduledTask> expired) {
+        ScheduledTask timer = take(level, index);
+        while (timer != null) {
+            ScheduledTask next = timer.next;
+            timer.next = null;
+            // A timer cancelled while waiting is dropped without going further down
+            if (!timer.isDone() && !add(timer))
+                expired.add(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Empties a slot
+     *
+     * @param level the level of the slot
+     * @param index the index of the slot
+     * @return the first timer of the slot, linked to the others
+     */
+    private ScheduledTask take(int level, int index) {
+        ScheduledTask timer = slots[level][index];
+        if (timer != null) {
+            slots[level][index] = null;
+            for (ScheduledTask t = timer; t != null; t = t.next)
+                size--;
+        }
+        return timer;
+    }
+}
@@ -0,0 +1,28 @@
+package fr.univnantes.pmc.project.threadpool;
+
+/**
+ * Notified when the number of tasks waiting in a ThreadPool crosses its watermarks, so that the producers of tasks
+ * can throttle themselves before the queue is full.
+ * <p>
+ * The notifications alternate: once the high watermark is reached, the low one must be reached before the high one
+ * is notified again. They are called by the thread whose submission or dequeue crossed the watermark.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public interface WatermarkListener {
+
+    /**
+     * Called when the number of waiting tasks reaches the high watermark
+     *
+     * @param queued the number of waiting tasks
+     */
+    void onHighWatermark(int queued);
+
+    /**
+     * Called when the number of waiting tasks falls back to the low watermark
+     *
+     * @param queued the number of waiting tasks
+     */
+    void onLowWatermark(int queued);
+}
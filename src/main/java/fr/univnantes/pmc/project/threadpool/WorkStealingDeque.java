@@ -0,0 +1,151 @@
+package fr.univnantes.pmc.project.threadpool;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A Chase-Lev work-stealing deque.
+ * <p>
+ * Only the owner of the deque pushes and pops, at the bottom, in LIFO order. Any other thread may steal from the
+ * top, in FIFO order. The owner only competes with the thieves for the last element, so pushing and popping
+ * usually cost no atomic operation at all.
+ *
+ * @param <T> the type of the elements
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ * @see <a href="https://dl.acm.org/doi/10.1145/1073970.1073974">"Dynamic Circular Work-Stealing Deque"</a>
+ */
+final class WorkStealingDeque<T> {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final VarHandle TOP;
+
+    static {
+        try {
+            TOP = MethodHandles.lookup().findVarHandle(WorkStealingDeque.class, "top", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Index of the oldest element, only moved forward by a CAS
+    private volatile long top = 0;
+    // Index following the newest element, only written by the owner
+    private volatile long bottom = 0;
+    // Circular array whose length is a power of 2, replaced by a larger copy when full
+    private volatile AtomicReferenceArray<T> array = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    /**
+     * Pushes an element at the bottom of the deque, only called by the owner
+     *
+     * @param value the element to push
+     */
+    void push(T value) {
+        long b = bottom;
+        long t = top;
+        AtomicReferenceArray<T> a = array;
+        if (b - t >= a.length()) {
+            a = grow(a, t, b);
+        }
+        a.set((int) b & (a.length() - 1), value);
+        // Publishes the element to the thieves
+        bottom = b + 1;
+    }
+
+    /**
+     * Pops the newest element of the deque, only called by the owner
+     *
+     * @return the newest element, or null if the deque is empty
+     */
+    T pop() {
+        long b = bottom - 1;
+        AtomicReferenceArray<T> a = array;
+        // Reserves the element before looking at the thieves
+        bottom = b;
+        long t = top;
+        if (t > b) {
+            // The deque was empty
+            bottom = b + 1;
+            return null;
+        }
+        int index = (int) b & (a.length() - 1);
+        T value = a.get(index);
+        if (t == b) {
+            // Last element: the thieves may be trying to take it too
+            if (!TOP.compareAndSet(this, t, t + 1))
+                value = null;
+            bottom = b + 1;
+        } else {
+            // The thieves never read this slot until it is pushed again
+            a.set(index, null);
+        }
+        return value;
+    }
+
+    /**
+     * Steals the oldest element of the deque, called by any thread
+     *
+     * @return the oldest element, or null if the deque is empty or another thread took it first
+     */
+    T steal() {
+        long t = top;
+        long b = bottom;
+        if (t >= b)
+            return null;
+        AtomicReferenceArray<T> a = array;
+        T value = a.get((int) t & (a.length() - 1));
+        if (!TOP.compareAndSet(this, t, t + 1))
+            return null;
+        return value;
+    }
+
+    /**
+     * Reads the oldest element of the deque without removing it, the answer may be outdated as soon as it is returned
+     *
+     * @return the oldest element, or null if the deque seems empty
+     */
+    T peek() {
+        long t = top;
+        long b = bottom;
+        if (t >= b)
+            return null;
+        AtomicReferenceArray<T> a = array;
+        return a.get((int) t & (a.length() - 1));
+    }
+
+    /**
+     * Checks whether the deque seems empty, the answer may be outdated as soon as it is returned
+     *
+     * @return true if the deque contains no element
+     */
+    boolean isEmpty() {
+        return top >= bottom;
+    }
+
+    /**
+     * Gets an estimation of the number of elements in the deque
+     *
+     * @return the approximate number of elements
+     */
+    int size() {
+        return (int) Math.max(0, bottom - top);
+    }
+
+    /**
+     * Replaces the array by a copy twice larger, only called by the owner
+     *
+     * @param a the current array
+     * @param t the top index
+     * @param b the bottom index
+     * @return the new array
+     */
+    private AtomicReferenceArray<T> grow(AtomicReferenceArray<T> a, long t, long b) {
+        AtomicReferenceArray<T> larger = new AtomicReferenceArray<>(a.length() * 2);
+        for (long i = t; i < b; i++) {
+            larger.set((int) i & (larger.length() - 1), a.get((int) i & (a.length() - 1)));
+        }
+        array = larger;
+        return larger;
+    }
+}
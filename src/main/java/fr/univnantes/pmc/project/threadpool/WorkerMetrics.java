@@ -0,0 +1,106 @@
+package fr.univnantes.pmc.project.threadpool;
+
+/**
+ * The measures taken by one worker of a ThreadPool.
+ * <p>
+ * Every field is only written by the worker, so updating the measures costs no atomic operation; the other threads
+ * only read them.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+final class WorkerMetrics {
+
+    // Time between the submission of a task, or the moment a delayed task is due, and its start
+    final LatencyHistogram waitTime = new LatencyHistogram();
+    // Time spent running a task
+    final LatencyHistogram runTime = new LatencyHistogram();
+    private final long created = System.nanoTime();
+    private volatile long busyNanos = 0;
+    // Start of the running task, 0 while the worker is idle
+    private volatile long runningSince = 0;
+    private volatile long tasks = 0;
+    private volatile long failed = 0;
+
+    /**
+     * Runs a task while measuring it.
+     * A task run nested in the running task, when the worker submits to a full pool, is counted and timed too, but
+     * its time is already part of the busy time of the running task.
+     *
+     * @param task the task to run, possibly wrapped with its submission time
+     */
+    void run(Runnable task) {
+        long start = System.nanoTime();
+        if (task instanceof TimedTask) {
+            TimedTask timed = (TimedTask) task;
+            waitTime.record(timed.waitNanos(start));
+            task = timed.task;
+        }
+        boolean nested = runningSince != 0;
+        if (!nested)
+            runningSince = start;
+        boolean succeeded = false;
+        try {
+            task.run();
+            succeeded = true;
+        } finally {
+            long duration = System.nanoTime() - start;
+            runTime.record(duration);
+            if (!nested) {
+                runningSince = 0;
+                busyNanos = busyNanos + duration;
+            }
+            tasks = tasks + 1;
+            if (!succeeded)
+                failed = failed + 1;
+        }
+    }
+
+    /**
+     * This method will return true while the worker runs a task
+     *
+     * @return true if the worker is busy
+     */
+    boolean isBusy() {
+        return runningSince != 0;
+    }
+
+    /**
+     * Gets the time spent running tasks since the worker was created, including the task running now
+     *
+     * @param now the current time
+     * @return the busy time in nanoseconds
+     */
+    long busyNanos(long now) {
+        long since = runningSince;
+        return busyNanos + (since == 0 ? 0 : now - since);
+    }
+
+    /**
+     * Gets the time elapsed since the worker was created
+     *
+     * @param now the current time
+     * @return the lifetime in nanoseconds
+     */
+    long aliveNanos(long now) {
+        return now - created;
+    }
+
+    /**
+     * Gets the number of tasks run by the worker
+     *
+     * @return the number of tasks run
+     */
+    long tasks() {
+        return tasks;
+    }
+
+    /**
+     * Gets the number of tasks that threw an exception
+     *
+     * @return the number of failed tasks
+     */
+    long failed() {
+        return failed;
+    }
+}
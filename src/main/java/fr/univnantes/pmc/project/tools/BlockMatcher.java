@@ -0,0 +1,308 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the regular expression of WebGrep in the text of the blocks of a page, recording the offsets of every
+ * match so that printing them never runs the regular expression again.
+ * <p>
+ * Most patterns contain a literal that every match contains, such as "Nantes" in "Nantes( Métropole)?" or
+ * " Métropole" in "Nante?s Métropole". This literal is extracted from the pattern once, and a block that
+ * does not contain it is rejected with String.indexOf, which the JIT compiler turns into a vectorized scan, before
+ * the regular expression engine runs. The extraction is conservative: the patterns it does not understand simply have
+ * no literal, and every block is then searched with the regular expression.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+final class BlockMatcher {
+
+    private final Pattern pattern;
+    // A string contained in every match, null if there is none to check
+    private final String literal;
+
+    /**
+     * Create a new BlockMatcher
+     *
+     * @param pattern the regular expression
+     */
+    BlockMatcher(Pattern pattern) {
+        this.pattern = pattern;
+        // The literal is compared case-sensitively, as are the code points of the text
+        boolean exact = (pattern.flags() & (Pattern.CASE_INSENSITIVE | Pattern.LITERAL | Pattern.COMMENTS
+                | Pattern.CANON_EQ)) == 0;
+        String found = exact ? requiredLiteral(pattern.pattern()) : null;
+        this.literal = found == null || found.isEmpty() ? null : found;
+    }
+
+    /**
+     * Gets the literal that every match contains
+     *
+     * @return the literal, or null if the blocks are not prefiltered
+     */
+    String literal() {
+        return literal;
+    }
+
+    /**
+     * Searches the regular expression in a text
+     *
+     * @param text the text of a block
+     * @return the start and end offsets of the successive matches, in pairs, or null if the text does not match
+     */
+    int[] find(String text) {
+        if (literal != null && !text.contains(literal))
+            return null;
+        Matcher matcher = pattern.matcher(text);
+        if (!matcher.find())
+            return null;
+        int[] offsets = new int[2];
+        int count = 0;
+        do {
+            if (count == offsets.length)
+                offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count++] = matcher.start();
+            offsets[count++] = matcher.end();
+        } while (matcher.find());
+        return count == offsets.length ? offsets : Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * Extracts from a regular expression the longest string that any match contains.
+     * Only the top level of the expression is read: an alternation gives no literal, and a group, a character class or
+     * an escape other than a quoted punctuation character only ends the current literal.
+     *
+     * @param regex the regular expression
+     * @return the longest literal, an empty string if there is none, or null if the expression has inline flags
+     */
+    static String requiredLiteral(String regex) {
+        // Inline flags, such as (?i), may change how the rest of the expression matches, even outside their group
+        for (int flags = regex.indexOf("(?"); flags >= 0; flags = regex.indexOf("(?", flags + 1))
+            if (flags + 2 < regex.length() && isFlag(regex.charAt(flags + 2)))
+                return null;
+        String longest = "";
+        StringBuilder current = new StringBuilder();
+        int i = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            // The length of the atom starting at i, -1 if it is not a literal character
+            int literalLength = -1;
+            int next;
+            if (c == '\\') {
+                if (i + 1 >= n)
+                    return longest;
+                char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q') {
+                    // A quoted sequence is literal up to \E, but a quantifier after it only applies to its last char
+                    int end = regex.indexOf("\\E", i + 2);
+                    String quoted = regex.substring(i + 2, end < 0 ? n : end);
+                    current.append(quoted);
+                    next = end < 0 ? n : end + 2;
+                    literalLength = quoted.isEmpty() ? 0 : Character.charCount(quoted.codePointBefore(quoted.length()));
+                } else if (!Character.isLetterOrDigit(escaped)) {
+                    current.append(escaped);
+                    next = i + 2;
+                    literalLength = 1;
+                } else {
+                    // \d, \b, \1, \x41, \p{L} ... do not match their own letters, they end the literal
+                    next = skipEscape(regex, i);
+                }
+            } else if (c == '(') {
+                next = skipGroup(regex, i);
+                if (next < 0)
+                    return longest;
+            } else if (c == '[') {
+                next = skipClass(regex, i);
+                if (next < 0)
+                    return longest;
+            } else if (c == '|') {
+                return "";
+            } else if (c == '.' || c == '^' || c == '$' || c == ')') {
+                next = i + 1;
+            } else if (c == '*' || c == '+' || c == '?' || c == '{') {
+                // A quantifier without an atom before it: the expression is not understood
+                return "";
+            } else {
+                int codePoint = regex.codePointAt(i);
+                literalLength = Character.charCount(codePoint);
+                current.appendCodePoint(codePoint);
+                next = i + literalLength;
+            }
+
+            // The quantifier of the atom, if any
+            if (next < n && isQuantifier(regex.charAt(next))) {
+                char quantifier = regex.charAt(next);
+                boolean required = quantifier == '+';
+                next++;
+                if (quantifier == '{') {
+                    int close = regex.indexOf('}', next);
+                    if (close < 0)
+                        return "";
+                    String bounds = regex.substring(next, close);
+                    int comma = bounds.indexOf(',');
+                    String min = (comma < 0 ? bounds : bounds.substring(0, comma)).trim();
+                    required = !min.isEmpty() && min.chars().allMatch(Character::isDigit)
+                            && !min.chars().allMatch(digit -> digit == '0');
+                    next = close + 1;
+                }
+                // Lazy and possessive quantifiers
+                if (next < n && (regex.charAt(next) == '?' || regex.charAt(next) == '+'))
+                    next++;
+                if (literalLength > 0 && !required)
+                    current.setLength(current.length() - literalLength);
+                literalLength = -1;
+            }
+            if (literalLength < 0) {
+                if (current.length() > longest.length())
+                    longest = current.toString();
+                current.setLength(0);
+            }
+            i = next;
+        }
+        return current.length() > longest.length() ? current.toString() : longest;
+    }
+
+    /**
+     * This method will return true if the character starts a quantifier
+     *
+     * @param c the character
+     * @return true for *, +, ? and {
+     */
+    private static boolean isQuantifier(char c) {
+        return c == '*' || c == '+' || c == '?' || c == '{';
+    }
+
+    /**
+     * This method will return true if the character can follow (? in an inline flag group
+     *
+     * @param c the character
+     * @return true for the flags and the - removing them
+     */
+    private static boolean isFlag(char c) {
+        return "idmsuxU-".indexOf(c) >= 0;
+    }
+
+    /**
+     * Skips an escape and its argument, such as \x{1F600}, \u00E9, \0101, \cA, \k<name>, \pL or \N{SPACE}
+     *
+     * @param regex the regular expression
+     * @param start the index of the backslash
+     * @return the index following the escape, at most the length of the expression
+     */
+    private static int skipEscape(String regex, int start) {
+        int n = regex.length();
+        if (start + 1 >= n)
+            return n;
+        char escaped = regex.charAt(start + 1);
+        int i = start + 2;
+        switch (escaped) {
+            case 'x':
+                return i < n && regex.charAt(i) == '{' ? skipPast(regex, i, '}') : Math.min(i + 2, n);
+            case 'u':
+                return Math.min(i + 4, n);
+            case '0':
+                // Up to three octal digits, a digit too many only shortens the literal
+                for (int digits = 0; digits < 3 && i < n && regex.charAt(i) >= '0' && regex.charAt(i) <= '7'; digits++)
+                    i++;
+                return i;
+            case 'c':
+                return Math.min(i + 1, n);
+            case 'k':
+                return i < n && regex.charAt(i) == '<' ? skipPast(regex, i, '>') : i;
+            case 'p':
+            case 'P':
+                return i < n && regex.charAt(i) == '{' ? skipPast(regex, i, '}') : Math.min(i + 1, n);
+            case 'N':
+                return i < n && regex.charAt(i) == '{' ? skipPast(regex, i, '}') : i;
+            default:
+                // A back reference takes as many digits as there are groups, all of them are skipped
+                if (escaped >= '1' && escaped <= '9')
+                    while (i < n && Character.isDigit(regex.charAt(i)))
+                        i++;
+                return i;
+        }
+    }
+
+    /**
+     * Skips the argument of an escape up to its closing character
+     *
+     * @param regex the regular expression
+     * @param start the index of the opening character
+     * @param close the closing character
+     * @return the index following the closing character, or the length of the expression if it is missing
+     */
+    private static int skipPast(String regex, int start, char close) {
+        int end = regex.indexOf(close, start);
+        return end < 0 ? regex.length() : end + 1;
+    }
+
+    /**
+     * Skips a group and its nested groups
+     *
+     * @param regex the regular expression
+     * @param start the index of the opening parenthesis
+     * @return the index following the closing parenthesis, or -1 if it is missing
+     */
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    if (end < 0)
+                        return -1;
+                    i = end + 2;
+                } else {
+                    i = skipEscape(regex, i);
+                }
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0)
+                    return -1;
+            } else {
+                if (c == '(')
+                    depth++;
+                else if (c == ')' && --depth == 0)
+                    return i + 1;
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skips a character class and its nested classes
+     *
+     * @param regex the regular expression
+     * @param start the index of the opening bracket
+     * @return the index following the closing bracket, or -1 if it is missing
+     */
+    private static int skipClass(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = skipEscape(regex, i);
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                // A ] right after the opening bracket, or after its ^, is a character of the class
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^')
+                    i++;
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']')
+                    i++;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,117 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A FIFO queue that any number of threads can use at the same time, implemented by the lock-free queues of the
+ * project so that the ThreadPool and WebGrep can use any of them.
+ * <p>
+ * A queue may be bounded: enqueue() then returns false when it is full.
+ *
+ * @param <T> the type of the values
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public interface ConcurrentQueue<T> {
+
+    /**
+     * Adds a value at the end of the queue
+     *
+     * @param value the value to add, not null
+     * @return true if the value was added, false if the queue is full
+     */
+    boolean enqueue(T value);
+
+    /**
+     * Removes the oldest value of the queue
+     *
+     * @return the oldest value, or null if the queue is empty
+     */
+    T dequeue();
+
+    /**
+     * Gets the oldest value of the queue without removing it
+     *
+     * @return the oldest value, or null if the queue is empty
+     */
+    T peek();
+
+    /**
+     * This method will return true if the queue holds no value
+     *
+     * @return true if the queue is empty
+     */
+    boolean isEmpty();
+
+    /**
+     * Removes the oldest value of the queue, waiting for one if the queue is empty
+     *
+     * @return the oldest value
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    T take() throws InterruptedException;
+
+    /**
+     * Removes the oldest value of the queue, waiting for one at most for the given time if the queue is empty
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return the oldest value, or null if the timeout elapsed before a value was enqueued
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    T poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Gets the maximum number of values the queue can hold
+     *
+     * @return the capacity of the queue, Integer.MAX_VALUE if it is unbounded
+     */
+    default int capacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Adds several values at the end of the queue, in order
+     *
+     * @param values the values to add
+     * @return the number of values added, less than their count if the queue became full
+     */
+    default int enqueueAll(Collection<? extends T> values) {
+        int added = 0;
+        for (T value : values) {
+            if (!enqueue(value))
+                break;
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Removes several values from the front of the queue, in order
+     *
+     * @param target the collection receiving the values
+     * @param max    the maximum number of values removed
+     * @return the number of values removed, 0 if the queue is empty
+     */
+    default int drainTo(Collection<? super T> target, int max) {
+        int count = 0;
+        T value;
+        while (count < max && (value = dequeue()) != null) {
+            target.add(value);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Adds a value at the end of the queue, yielding while the queue is full.
+     * The wait only ends when a consumer dequeues a value, so it must only be used while consumers are running.
+     *
+     * @param value the value to add, not null
+     */
+    default void put(T value) {
+        while (!enqueue(value))
+            Thread.yield();
+    }
+}
@@ -0,0 +1,257 @@
+package fr.univnantes.pmc.project.tools;
+
+import fr.univnantes.pmc.project.threadpool.ThreadPool;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The frontier of a crawl: the pages waiting to be fetched, sorted by host so that no server is hammered.
+ * <p>
+ * Each host has its own FIFO queue of fetches, and a host is ready when it has waiting fetches, fewer than
+ * maxPerHost fetches in progress, and its last fetch started at least delay ago. The ready hosts are kept in a
+ * priority queue sorted by the time from which they may be fetched, so that each host gets its turn: a host whose
+ * fetch was just started goes behind the others. Only the fetches of ready hosts are handed to the ThreadPool, so its
+ * workers are spread over the hosts instead of all waiting for the slowest one.
+ * <p>
+ * A fetch stays in flight for the pool from the moment it is added: either another fetch of the same host is in
+ * progress and will release it by calling done(), or a timer of the pool releases it once the delay has elapsed.
+ * The quiescence of the pool therefore still tells that the crawl is over. A fetch rejected by a full pool goes back
+ * to the head of the queue of its host, which is fetched again a little later.
+ * <p>
+ * A host without waiting fetches nor fetches in progress is forgotten once its delay has elapsed, so that a crawl
+ * over many hosts does not keep all of them.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class CrawlFrontier {
+
+    // Time before fetching again a host whose fetch was rejected by the pool
+    private static final long REJECTED_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final ThreadPool pool;
+    private final int maxPerHost;
+    private final long delayNanos;
+
+    // Every field below is guarded by the lock of this object
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final PriorityQueue<Host> readyHosts = new PriorityQueue<>((a, b) -> {
+        long order = a.nextFetch - b.nextFetch;
+        return order != 0 ? Long.signum(order) : Long.compare(a.turn, b.turn);
+    });
+    private long turns = 0;
+    // The idle hosts waiting for their delay to elapse before being forgotten, in the order they became idle
+    private final ArrayDeque<Host> idleHosts = new ArrayDeque<>();
+    // The earliest timer of the pool that will dispatch the fetches of a host waiting for its delay
+    private boolean timerArmed = false;
+    private long timerDeadline = 0;
+
+    /**
+     * Create a new empty CrawlFrontier
+     *
+     * @param pool       the pool running the fetches
+     * @param maxPerHost the maximum number of fetches in progress on a same host, 0 for no limit
+     * @param delay      the minimum time between the start of two fetches on a same host
+     * @param unit       the unit of the delay
+     */
+    public CrawlFrontier(ThreadPool pool, int maxPerHost, long delay, TimeUnit unit) {
+        if (maxPerHost < 0)
+            throw new IllegalArgumentException("CrawlFrontier - maxPerHost must not be negative: " + maxPerHost);
+        if (delay < 0)
+            throw new IllegalArgumentException("CrawlFrontier - delay must not be negative: " + delay);
+        this.pool = pool;
+        this.maxPerHost = maxPerHost;
+        this.delayNanos = unit.toNanos(delay);
+    }
+
+    /**
+     * Adds a fetch to the queue of its host. The task must call done() once the page has been fetched.
+     *
+     * @param address the URL of the page
+     * @param fetch   the task fetching the page
+     */
+    public void submit(String address, Runnable fetch) {
+        synchronized (this) {
+            Host host = hosts.computeIfAbsent(hostOf(address), Host::new);
+            host.fetches.add(fetch);
+            makeReady(host);
+        }
+        dispatch();
+    }
+
+    /**
+     * Tells that the fetch of a page is over, successful or not, so that its host can be fetched again
+     *
+     * @param address the URL of the page
+     */
+    public void done(String address) {
+        synchronized (this) {
+            Host host = hosts.get(hostOf(address));
+            host.inProgress--;
+            makeReady(host);
+            if (isIdle(host))
+                idleHosts.add(host);
+        }
+        dispatch();
+    }
+
+    /**
+     * Hands the fetches of the hosts that are ready now to the pool, and arms a timer for the next host whose
+     * delay has not elapsed yet
+     */
+    private void dispatch() {
+        boolean rejected;
+        do {
+            List<Host> started = new ArrayList<>();
+            List<Runnable> fetches = new ArrayList<>();
+            long timer = -1;
+            synchronized (this) {
+                long now = System.nanoTime();
+                forgetIdleHosts(now);
+                Host host;
+                while ((host = readyHosts.peek()) != null && host.nextFetch - now <= 0) {
+                    readyHosts.poll();
+                    host.ready = false;
+                    started.add(host);
+                    fetches.add(host.fetches.poll());
+                    host.inProgress++;
+                    host.nextFetch = now + delayNanos;
+                    makeReady(host);
+                }
+                // A timer still armed after its deadline was dropped by a full pool with the ABORT policy
+                if (host != null && (!timerArmed || host.nextFetch - timerDeadline < 0 || timerDeadline - now < 0)) {
+                    timerArmed = true;
+                    timerDeadline = host.nextFetch;
+                    timer = timerDeadline - now;
+                }
+            }
+            // Submitted one by one, so that the fetches the pool did not accept are known
+            rejected = false;
+            for (int i = 0; i < fetches.size(); i++) {
+                boolean accepted;
+                try {
+                    accepted = pool.submit(fetches.get(i));
+                } catch (RejectedExecutionException e) {
+                    accepted = false;
+                    rejected = true;
+                }
+                if (!accepted)
+                    requeue(started.get(i), fetches.get(i));
+            }
+            if (timer >= 0)
+                pool.schedule(this::wakeUp, timer, TimeUnit.NANOSECONDS);
+            // The hosts of the rejected fetches are now waiting, dispatching again arms the timer that fetches them
+        } while (rejected);
+    }
+
+    /**
+     * Puts back a fetch that the pool did not accept at the head of the queue of its host. The fetch is tried again
+     * a little later, unless the pool was shut down.
+     *
+     * @param host  the host of the fetch
+     * @param fetch the fetch
+     */
+    private synchronized void requeue(Host host, Runnable fetch) {
+        long now = System.nanoTime();
+        host.inProgress--;
+        host.fetches.addFirst(fetch);
+        if (host.nextFetch - now < REJECTED_DELAY_NANOS)
+            host.nextFetch = now + REJECTED_DELAY_NANOS;
+        if (host.ready) {
+            // Its place in the ready queue depends on the time of its next fetch
+            readyHosts.remove(host);
+            host.ready = false;
+        }
+        makeReady(host);
+    }
+
+    /**
+     * Forgets the idle hosts whose delay has elapsed, as a new host with the same name would be fetched at once
+     *
+     * @param now the current time, as given by System.nanoTime()
+     */
+    private void forgetIdleHosts(long now) {
+        Host host;
+        while ((host = idleHosts.peek()) != null && host.nextFetch - now <= 0) {
+            idleHosts.poll();
+            // The host may have been given new fetches since, or already forgotten
+            if (isIdle(host) && hosts.get(host.name) == host)
+                hosts.remove(host.name);
+        }
+    }
+
+    /**
+     * Checks whether a host has neither waiting fetches nor fetches in progress
+     *
+     * @param host the host
+     * @return true if the host is idle
+     */
+    private static boolean isIdle(Host host) {
+        return host.inProgress == 0 && host.fetches.isEmpty();
+    }
+
+    /**
+     * Called by the timer of the pool once the delay of a host has elapsed
+     */
+    private void wakeUp() {
+        synchronized (this) {
+            if (timerArmed && timerDeadline - System.nanoTime() <= 0)
+                timerArmed = false;
+        }
+        dispatch();
+    }
+
+    /**
+     * Puts a host in the ready queue if it has waiting fetches and may run one more
+     *
+     * @param host the host
+     */
+    private void makeReady(Host host) {
+        if (!host.ready && !host.fetches.isEmpty() && (maxPerHost == 0 || host.inProgress < maxPerHost)) {
+            host.ready = true;
+            // Among the hosts ready at the same time, the one that waited the longest goes first
+            host.turn = turns++;
+            readyHosts.add(host);
+        }
+    }
+
+    /**
+     * Gets the host of a URL
+     *
+     * @param address the URL
+     * @return the host, or an empty string for the URLs without a host
+     */
+    private static String hostOf(String address) {
+        try {
+            String host = URI.create(address).getHost();
+            return host == null ? "" : host.toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * The fetches of a host
+     */
+    private static class Host {
+        final String name;
+        final ArrayDeque<Runnable> fetches = new ArrayDeque<>();
+        int inProgress = 0;
+        // Time from which the next fetch may start, as given by System.nanoTime()
+        long nextFetch = System.nanoTime();
+        boolean ready = false;
+        long turn = 0;
+
+        Host(String name) {
+            this.name = name;
+        }
+    }
+}
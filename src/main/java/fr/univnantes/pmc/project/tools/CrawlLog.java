@@ -0,0 +1,298 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * The checkpoint of a crawl, so that a crawl interrupted by a crash or a restart goes on where it stopped.
+ * <p>
+ * The log is a text file with a line per event: "Q depth url" when a page is discovered, depth being the number of
+ * links followed from the starting URLs, and "E url" once it is explored, after the pages it links to were
+ * discovered and, if it matches, after it was printed. The threads of the crawl only enqueue their lines; a
+ * background thread appends them to the file in batches, and forces them to the disk at most once per syncPeriod, so
+ * that the crawl never waits for the disk. The lines are written in the order they were enqueued: a page logged as explored
+ * therefore has its links in the log too, and a crash only loses the last lines, whose pages are explored again.
+ * <p>
+ * When the log is opened, it is read: the pages explored are done, and the pages discovered but not explored are
+ * pending. It is then compacted to one line per page, so that it does not grow with each restart. These pages are
+ * handed once to the crawl by replay(), and are not kept during the crawl.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class CrawlLog implements AutoCloseable {
+
+    private static final String DISCOVERED = "Q ";
+    private static final String EXPLORED = "E ";
+    // Enqueued by close(), compared by reference so that it cannot be mistaken for a line
+    private static final String END = new String("");
+    // Maximum number of lines written at once
+    private static final int BATCH = 4096;
+
+    private final FileChannel file;
+    private final long syncPeriodNanos;
+    private final ConcurrentQueue<String> lines = new MichaelScottQueue<>();
+    private final Thread writer;
+    // The first failure of the writer, reported by close()
+    private volatile IOException failure = null;
+
+    // The pages read from the log, released by replay()
+    private Set<String> done = new HashSet<>();
+    private Map<String, Integer> pending = new LinkedHashMap<>();
+
+    /**
+     * Opens the log of a crawl stored in a directory, creating it if needed, and reads it
+     *
+     * @param directory  the directory of the log
+     * @param syncPeriod the maximum time between two writes of the log to the disk
+     * @param unit       the unit of the period
+     * @throws IOException if the log cannot be read or written
+     */
+    public CrawlLog(Path directory, long syncPeriod, TimeUnit unit) throws IOException {
+        if (syncPeriod < 0)
+            throw new IllegalArgumentException("CrawlLog - syncPeriod must not be negative: " + syncPeriod);
+        Files.createDirectories(directory);
+        Path log = directory.resolve("crawl.log");
+        if (Files.exists(log))
+            read(log);
+        compact(directory, log);
+        this.file = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.syncPeriodNanos = unit.toNanos(syncPeriod);
+        this.writer = new Thread(this::write, "CrawlLog");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Hands the pages read when the log was opened to the crawl, and releases them: it can only be called once.
+     * Every page explored is given before the first page to explore.
+     *
+     * @param done    called with the URL of each page explored before the log was opened
+     * @param pending called with the URL and the depth of each page discovered but not explored before the log was
+     *                opened, in the order they were discovered
+     */
+    public synchronized void replay(Consumer<String> done, BiConsumer<String, Integer> pending) {
+        if (this.done == null)
+            throw new IllegalStateException("CrawlLog - the log was already replayed");
+        Set<String> explored = this.done;
+        Map<String, Integer> discovered = this.pending;
+        this.done = null;
+        this.pending = null;
+        explored.forEach(done);
+        discovered.forEach(pending);
+    }
+
+    /**
+     * Logs the discovery of several pages
+     *
+     * @param addresses the URLs of the pages
+     * @param depth     the number of links followed from the starting URLs to reach them
+     */
+    public void discovered(Collection<String> addresses, int depth) {
+        List<String> batch = new ArrayList<>(addresses.size());
+        for (String address : addresses)
+            batch.add(DISCOVERED + depth + ' ' + escape(address));
+        lines.enqueueAll(batch);
+    }
+
+    /**
+     * Logs that a page was explored. The pages it links to must have been logged as discovered before.
+     *
+     * @param address the URL of the page
+     */
+    public void explored(String address) {
+        lines.enqueue(EXPLORED + escape(address));
+    }
+
+    /**
+     * Writes the lines still waiting, forces the log to the disk and closes it.
+     * The lines enqueued after close() is called are not written.
+     *
+     * @throws IOException if the log could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        lines.enqueue(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        file.close();
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * The loop of the background thread: appends the lines as they come, so that they survive the death of the
+     * process, and forces them to the disk once the period has elapsed since the first line not forced yet
+     */
+    private void write() {
+        Writer out = Channels.newWriter(file, StandardCharsets.UTF_8);
+        List<String> batch = new ArrayList<>();
+        // The time of the first line not forced to the disk, -1 if there is none
+        long unsynced = -1;
+        try {
+            while (true) {
+                String line;
+                try {
+                    line = unsynced < 0 ? lines.take()
+                            : lines.poll(syncPeriodNanos - (System.nanoTime() - unsynced), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    // Never interrupted, an interrupt during a write would close the file
+                    continue;
+                }
+                boolean end = false;
+                if (line != null) {
+                    batch.add(line);
+                    lines.drainTo(batch, BATCH - 1);
+                    for (String value : batch) {
+                        if (value == END)
+                            end = true;
+                        else
+                            out.write(value + '\n');
+                    }
+                    batch.clear();
+                    out.flush();
+                    if (unsynced < 0)
+                        unsynced = System.nanoTime();
+                }
+                if (end || unsynced >= 0 && System.nanoTime() - unsynced >= syncPeriodNanos) {
+                    file.force(false);
+                    unsynced = -1;
+                }
+                if (end)
+                    return;
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Reads a log, ignoring its last line if it was cut by a crash
+     *
+     * @param log the file of the log
+     * @throws IOException if the log cannot be read
+     */
+    private void read(Path log) throws IOException {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(log), StandardCharsets.UTF_8), 1 << 16)) {
+            StringBuilder line = new StringBuilder();
+            char[] buffer = new char[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n')
+                        continue;
+                    line.append(buffer, start, i - start);
+                    readLine(line);
+                    line.setLength(0);
+                    start = i + 1;
+                }
+                line.append(buffer, start, read - start);
+            }
+        }
+    }
+
+    /**
+     * Reads a complete line of the log
+     *
+     * @param line the line, without its line break
+     */
+    private void readLine(CharSequence line) {
+        if (line.length() < 2 || line.charAt(1) != ' ')
+            return;
+        if (line.charAt(0) == EXPLORED.charAt(0)) {
+            String address = unescape(line, 2);
+            done.add(address);
+            pending.remove(address);
+        } else if (line.charAt(0) == DISCOVERED.charAt(0)) {
+            int space = 2;
+            int depth = 0;
+            while (space < line.length() && line.charAt(space) >= '0' && line.charAt(space) <= '9')
+                depth = depth * 10 + line.charAt(space++) - '0';
+            if (space == 2 || space >= line.length() || line.charAt(space) != ' ')
+                return;
+            String address = unescape(line, space + 1);
+            // A page discovered several times keeps its smallest depth
+            if (!done.contains(address))
+                pending.merge(address, depth, Math::min);
+        }
+    }
+
+    /**
+     * Rewrites the log with a line per page, through a temporary file renamed once forced to the disk
+     *
+     * @param directory the directory of the log
+     * @param log       the file of the log
+     * @throws IOException if the log cannot be written
+     */
+    private void compact(Path directory, Path log) throws IOException {
+        Path temporary = directory.resolve("crawl.log.tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer out = Channels.newWriter(channel, StandardCharsets.UTF_8);
+            for (String address : done)
+                out.write(EXPLORED + escape(address) + '\n');
+            for (Map.Entry<String, Integer> page : pending.entrySet())
+                out.write(DISCOVERED + page.getValue() + ' ' + escape(page.getKey()) + '\n');
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(temporary, log, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Escapes the backslashes and line breaks of a URL, so that it fits on a line
+     *
+     * @param address the URL
+     * @return the escaped URL
+     */
+    static String escape(String address) {
+        if (address.indexOf('\\') < 0 && address.indexOf('\n') < 0 && address.indexOf('\r') < 0)
+            return address;
+        return address.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Reverses escape()
+     *
+     * @param line  the line holding the escaped URL
+     * @param start the index of the URL in the line
+     * @return the URL
+     */
+    static String unescape(CharSequence line, int start) {
+        StringBuilder address = new StringBuilder(line.length() - start);
+        for (int i = start; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                address.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                address.append(c);
+            }
+        }
+        return address.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An unbounded lock-free queue for any number of producers and consumers, made of linked array segments.
+ * <p>
+ * A producer claims a slot of the last segment with a fetch-and-add on its enqueue index, and a consumer claims a
+ * slot of the first segment with a fetch-and-add on its dequeue index. Unlike the CAS loops of MichaelScottQueue,
+ * a fetch-and-add always succeeds, so contention does not waste work: a CAS is only needed to link a new segment,
+ * once every 1024 values, or when a consumer overtakes a producer on the same slot. In that case the consumer marks
+ * the slot as taken, and the producer, whose CAS then fails, simply claims another slot.
+ * <p>
+ * This is the FAAArrayQueue of Correia and Ramalhete, the simplest queue of the LCRQ family: the segments are
+ * linked instead of being recycled as rings, which needs no double-width CAS.
+ *
+ * @param <T> the type of the values
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ * @see <a href="https://github.com/pramalhe/ConcurrencyFreaks/blob/master/papers/crturnqueue-2016.pdf">
+ * "A Wait-Free Queue with Wait-Free Memory Reclamation"</a>
+ */
+public class FAAArrayQueue<T> implements ConcurrentQueue<T> {
+
+    private static final int SEGMENT_SIZE = 1024;
+    // Put in a slot by the consumer that claimed it before its producer wrote it
+    private static final Object TAKEN = new Object();
+
+    private final AtomicReference<Segment> head;
+    private final AtomicReference<Segment> tail;
+    private final WaiterStack waiters = new WaiterStack();
+
+    /**
+     * Create a new empty FAAArrayQueue
+     */
+    public FAAArrayQueue() {
+        Segment start = new Segment(null);
+        head = new AtomicReference<>(start);
+        tail = new AtomicReference<>(start);
+    }
+
+    @Override
+    public boolean enqueue(T value) {
+        while (true) {
+            Segment last = tail.get();
+            int index = last.indices.getAndIncrement(Segment.ENQUEUE);
+            if (index < SEGMENT_SIZE) {
+                if (last.values.compareAndSet(index, null, value)) {
+                    waiters.signalIfWaiting();
+                    return true;
+                }
+                // A consumer took the slot first
+                continue;
+            }
+            // The segment is full
+            if (last != tail.get())
+                continue;
+            Segment next = last.next.get();
+            if (next == null) {
+                if (last.next.compareAndSet(null, new Segment(value))) {
+                    tail.compareAndSet(last, last.next.get());
+                    waiters.signalIfWaiting();
+                    return true;
+                }
+            } else {
+                tail.compareAndSet(last, next);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T dequeue() {
+        while (true) {
+            Segment first = head.get();
+            if (first.indices.get(Segment.DEQUEUE) >= first.indices.get(Segment.ENQUEUE) && first.next.get() == null)
+                return null;
+            int index = first.indices.getAndIncrement(Segment.DEQUEUE);
+            if (index < SEGMENT_SIZE) {
+                Object value = first.values.getAndSet(index, TAKEN);
+                // A null slot was claimed but not written yet: it is lost for its producer, who claims another one
+                if (value != null)
+                    return (T) value;
+                continue;
+            }
+            // The segment is exhausted
+            Segment next = first.next.get();
+            if (next == null)
+                return null;
+            head.compareAndSet(first, next);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        for (Segment segment = head.get(); segment != null; segment = segment.next.get()) {
+            int end = Math.min(segment.indices.get(Segment.ENQUEUE), SEGMENT_SIZE);
+            for (int index = segment.indices.get(Segment.DEQUEUE); index < end; index++) {
+                Object value = segment.values.get(index);
+                if (value != null && value != TAKEN)
+                    return (T) value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        return waiters.await(this, false, 0L);
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return waiters.await(this, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * A segment of the queue
+     */
+    private static class Segment {
+        // The indices are 128 bytes apart in their array, so that producers and consumers do not share a cache line
+        static final int ENQUEUE = 16;
+        static final int DEQUEUE = 32;
+
+        final AtomicIntegerArray indices = new AtomicIntegerArray(48);
+        final AtomicReferenceArray<Object> values = new AtomicReferenceArray<>(SEGMENT_SIZE);
+        final AtomicReference<Segment> next = new AtomicReference<>(null);
+
+        /**
+         * Create a new segment
+         *
+         * @param first the value of the first slot, already claimed, or null for an empty segment
+         */
+        Segment(Object first) {
+            if (first != null) {
+                values.lazySet(0, first);
+                indices.lazySet(ENQUEUE, 1);
+            }
+        }
+    }
+}
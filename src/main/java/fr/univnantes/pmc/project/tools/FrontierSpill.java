@@ -0,0 +1,130 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The pages of the frontier of a crawl that do not fit in its memory budget, kept in a temporary file until there is
+ * room for them.
+ * <p>
+ * The pages are appended to the file as lines "depth url", escaped as in a CrawlLog, and read back in the same order.
+ * Once every page written was read back, the file is emptied, so that it only holds the pages waiting at the same
+ * time. The heap only holds the buffers of the file, however many pages wait in it.
+ * <p>
+ * A failure of the file is thrown as an UncheckedIOException, as the crawl cannot go on without its pages.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class FrontierSpill implements AutoCloseable {
+
+    private final Path file;
+    // Every field below is guarded by the lock of this object
+    private BufferedWriter out;
+    private BufferedReader in;
+    // Number of pages written and not read back yet
+    private long size = 0;
+
+    /**
+     * Create a new empty FrontierSpill in the temporary directory
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public FrontierSpill() throws IOException {
+        this.file = Files.createTempFile("frontier", ".spill");
+        // Not left behind if the crawl is interrupted
+        file.toFile().deleteOnExit();
+        open();
+    }
+
+    /**
+     * Gets the number of pages waiting in the file
+     *
+     * @return the number of pages
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Appends pages at the end of the file
+     *
+     * @param addresses the URLs of the pages
+     * @param depth     the number of links followed from the starting URLs to reach them
+     */
+    public synchronized void add(Collection<String> addresses, int depth) {
+        try {
+            for (String address : addresses) {
+                out.write(Integer.toString(depth));
+                out.write(' ');
+                out.write(CrawlLog.escape(address));
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        size += addresses.size();
+    }
+
+    /**
+     * Reads back the oldest pages of the file
+     *
+     * @param max the maximum number of pages to read
+     * @return the URLs of the pages and their depth, in the order they were added
+     */
+    public synchronized Map<String, Integer> poll(int max) {
+        Map<String, Integer> pages = new LinkedHashMap<>();
+        if (size == 0)
+            return pages;
+        try {
+            // Every line read is complete, the reader never reaches the end of the file
+            out.flush();
+            while (pages.size() < max && size > 0) {
+                String line = in.readLine();
+                size--;
+                int space = line.indexOf(' ');
+                pages.put(CrawlLog.unescape(line, space + 1), Integer.parseInt(line.substring(0, space)));
+            }
+            if (size == 0) {
+                out.close();
+                in.close();
+                open();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return pages;
+    }
+
+    /**
+     * Deletes the file, with the pages still waiting in it
+     *
+     * @throws IOException if the file cannot be deleted
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+        in.close();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Empties the file and opens it for writing and reading
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    private void open() throws IOException {
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,890 @@
+package fr.univnantes.pmc.project.tools;
+
+import org.jsoup.internal.StringUtil;
+import org.jsoup.nodes.Entities;
+import org.jsoup.parser.Tag;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the text of the targeted elements, as well as the hyperlinks, of a Web page in a single pass over its HTML,
+ * without building the tree of the page.
+ * <p>
+ * Only the elements that are open are remembered, as a stack of their names, and the text of a targeted element
+ * (h1, h2, h3, h4, h5, p, dt or dd) is accumulated while it is open, following the rules of Element.text() of Jsoup:
+ * whitespace is normalised except inside pre, textarea and title, a space separates the text before and after a
+ * block element or a br, and the content of script and style is not text. The elements are closed implicitly the way
+ * the tree builder of Jsoup does for the cases that change the text of the targeted elements: a p is closed by the
+ * start of a block, a dt or dd by the next dt or dd, a heading by the next heading, a cell by the next cell, and an end
+ * tag closes the elements opened inside it.
+ * <p>
+ * The result is the same PageText as with Jsoup for the pages we crawl; the rarest repairs of the HTML5 tree builder
+ * (text moved out of a table, formatting elements left open and re-created in the following blocks, svg and math
+ * content) are not emulated. These only change the order of the texts or duplicate hyperlinks.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+final class HtmlScanner {
+
+    private static final Set<String> TARGETS = set("h1", "h2", "h3", "h4", "h5", "p", "dt", "dd");
+    private static final Set<String> HEADINGS = set("h1", "h2", "h3", "h4", "h5", "h6");
+    // The start tags closing an open p
+    private static final Set<String> P_CLOSERS = set("address", "article", "aside", "blockquote", "center",
+            "details", "dir", "div", "dl", "fieldset", "figcaption", "figure", "footer", "header", "hgroup", "menu",
+            "nav", "ol", "p", "section", "summary", "ul", "pre", "listing", "form", "hr", "xmp", "table", "plaintext",
+            "li", "dd", "dt", "h1", "h2", "h3", "h4", "h5", "h6");
+    // The end tags closing the elements opened inside them, if they are in scope
+    private static final Set<String> BLOCK_ENDS = set("address", "article", "aside", "blockquote", "button",
+            "center", "details", "dir", "div", "dl", "fieldset", "figcaption", "figure", "footer", "header", "hgroup",
+            "listing", "menu", "nav", "ol", "pre", "section", "summary", "ul", "li", "dd", "dt");
+    private static final Set<String> SPECIAL = set("address", "applet", "area", "article", "aside", "base",
+            "basefont", "bgsound", "blockquote", "body", "br", "button", "caption", "center", "col", "colgroup",
+            "command", "dd", "details", "dir", "div", "dl", "dt", "embed", "fieldset", "figcaption", "figure",
+            "footer", "form", "frame", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "head", "header", "hgroup",
+            "hr", "html", "iframe", "img", "input", "isindex", "li", "link", "listing", "marquee", "menu", "meta",
+            "nav", "noembed", "noframes", "noscript", "object", "ol", "p", "param", "plaintext", "pre", "script",
+            "section", "select", "style", "summary", "table", "tbody", "td", "textarea", "tfoot", "th", "thead",
+            "title", "tr", "ul", "wbr", "xmp");
+    // The elements limiting the scope in which an end tag looks for its element
+    private static final Set<String> SCOPE = set("applet", "caption", "html", "table", "td", "th", "marquee",
+            "object", "template");
+    private static final Set<String> BUTTON_SCOPE = set("button");
+    private static final Set<String> LIST_SCOPE = set("ol", "ul");
+    // The elements that do not start the body of the page
+    private static final Set<String> HEAD = set("html", "head", "base", "basefont", "bgsound", "command", "link",
+            "meta", "noframes", "noscript", "script", "style", "title", "template");
+    // The start tags closing an open select, with the parts of a table if the select is in a table
+    private static final Set<String> SELECT_CLOSERS = set("select", "input", "keygen", "textarea");
+    // The parts of a table, ignored outside a table
+    private static final Set<String> TABLE_PARTS = set("caption", "col", "colgroup", "tbody", "td", "tfoot", "th",
+            "thead", "tr");
+    private static final Set<String> TABLE_CELLS = set("td", "th", "caption");
+    // The parts of a table in which each part is opened, besides the table itself
+    private static final Map<String, Set<String>> TABLE_CONTAINERS = new HashMap<>();
+    // The elements whose content is data, not text
+    private static final Set<String> DATA = set("script", "style");
+    // The elements whose content is text without tags, with or without character references
+    private static final Set<String> RCDATA = set("title", "textarea");
+    private static final Set<String> RAWTEXT = set("xmp", "iframe", "noembed", "noframes");
+    // The characters of windows-1252 that browsers, and Jsoup, read in place of the numeric references 128 to 159
+    private static final int[] WINDOWS_1252 = {0x20AC, 0x0081, 0x201A, 0x0192, 0x201E, 0x2026, 0x2020, 0x2021,
+            0x02C6, 0x2030, 0x0160, 0x2039, 0x0152, 0x008D, 0x017D, 0x008F, 0x0090, 0x2018, 0x2019, 0x201C, 0x201D,
+            0x2022, 0x2013, 0x2014, 0x02DC, 0x2122, 0x0161, 0x203A, 0x0153, 0x009D, 0x017E, 0x0178};
+
+    // Number of bytes at the start of a page in which Jsoup looks for the declaration of its charset
+    private static final int CHARSET_SNIFF_SIZE = 5 * 1024;
+    // The charset of a meta element, given by its charset attribute or in the content of an http-equiv
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "(?i)<meta\\s[^>]*?\\bcharset\\s*=\\s*[\"']?\\s*([^\\s\"'/>;,]+)");
+    // The encoding of an XML declaration at the very start of the page
+    private static final Pattern XML_ENCODING = Pattern.compile(
+            "^\\s*<\\?xml\\s[^>]*?\\bencoding\\s*=\\s*[\"']([^\"']+)");
+
+    static {
+        TABLE_CONTAINERS.put("td", set("tr", "tbody", "thead", "tfoot"));
+        TABLE_CONTAINERS.put("th", set("tr", "tbody", "thead", "tfoot"));
+        TABLE_CONTAINERS.put("tr", set("tbody", "thead", "tfoot"));
+        for (String part : new String[]{"tbody", "thead", "tfoot", "caption", "colgroup", "col"})
+            TABLE_CONTAINERS.put(part, Collections.emptySet());
+    }
+
+    private final String html;
+    private final int length;
+    private int position = 0;
+    private String baseUri;
+    private boolean baseSet = false;
+    // False until the first element or text of the body: the end tags are ignored before
+    private boolean inBody = false;
+    // True while a select is open: its content is only options
+    private boolean inSelect = false;
+    // True from a form to its end tag, even if the form was closed by the end of an element containing it
+    private boolean inForm = false;
+    // The open elements, from the outermost to the innermost
+    private final List<Open> stack = new ArrayList<>();
+    // The open targeted elements, whose text is being accumulated
+    private final List<Open> targets = new ArrayList<>();
+    // Every targeted element, in the order of the page
+    private final List<Open> blocks = new ArrayList<>();
+    private final List<String> hrefs = new ArrayList<>();
+
+    private HtmlScanner(String html, String baseUri) {
+        this.html = html;
+        this.length = html.length();
+        this.baseUri = baseUri;
+    }
+
+    /**
+     * Scans a Web page
+     *
+     * @param baseUri the URL against which the hyperlinks are resolved
+     * @param html    the HTML of the page
+     * @return the text of the targeted elements and the hyperlinks of the page
+     */
+    static PageText scan(String baseUri, String html) {
+        HtmlScanner scanner = new HtmlScanner(html, baseUri);
+        scanner.scan();
+        List<String> blocks = new ArrayList<>(scanner.blocks.size());
+        for (Open block : scanner.blocks)
+            blocks.add(block.text.toString().trim());
+        List<String> links = new ArrayList<>(scanner.hrefs.size());
+        for (String href : scanner.hrefs)
+            links.add(StringUtil.resolve(scanner.baseUri, href).split("#")[0]);
+        return new PageText(blocks, links);
+    }
+
+    /**
+     * Scans a Web page as it was received, decoding it with the charset Jsoup would choose: the one of its byte
+     * order mark, else the one of the Content-Type header, else the one declared by a meta element or an XML
+     * declaration in its first bytes, else UTF-8
+     *
+     * @param baseUri the URL against which the hyperlinks are resolved
+     * @param body    the bytes of the body of the page
+     * @param charset the charset given by the Content-Type header, or null if there is none
+     * @return the text of the targeted elements and the hyperlinks of the page
+     */
+    static PageText scan(String baseUri, byte[] body, String charset) {
+        // The byte order mark of UTF-8 is skipped, the decoders of UTF-16 and UTF-32 skip their own
+        int start = 0;
+        Charset decoded;
+        if (startsWith(body, 0x00, 0x00, 0xFE, 0xFF) || startsWith(body, 0xFF, 0xFE, 0x00, 0x00)) {
+            decoded = Charset.forName("UTF-32");
+        } else if (startsWith(body, 0xFE, 0xFF) || startsWith(body, 0xFF, 0xFE)) {
+            decoded = StandardCharsets.UTF_16;
+        } else if (startsWith(body, 0xEF, 0xBB, 0xBF)) {
+            decoded = StandardCharsets.UTF_8;
+            start = 3;
+        } else {
+            decoded = supported(charset != null ? charset : declaredCharset(body));
+        }
+        return scan(baseUri, new String(body, start, body.length - start, decoded));
+    }
+
+    /**
+     * Finds the charset declared by a page in its first bytes, which are ASCII in every charset Jsoup detects
+     *
+     * @param body the bytes of the body of the page
+     * @return the charset declared, or null if there is none
+     */
+    private static String declaredCharset(byte[] body) {
+        String head = new String(body, 0, Math.min(body.length, CHARSET_SNIFF_SIZE), StandardCharsets.ISO_8859_1);
+        Matcher meta = META_CHARSET.matcher(head);
+        if (meta.find())
+            return meta.group(1);
+        Matcher xml = XML_ENCODING.matcher(head);
+        return xml.find() ? xml.group(1) : null;
+    }
+
+    /**
+     * Gets a charset by its name, as Jsoup does
+     *
+     * @param name the name of the charset, or null
+     * @return the charset, or UTF-8 if the name is null or not supported
+     */
+    private static Charset supported(String name) {
+        if (name != null) {
+            name = name.trim();
+            try {
+                if (Charset.isSupported(name))
+                    return Charset.forName(name);
+                if (Charset.isSupported(name.toUpperCase(Locale.ENGLISH)))
+                    return Charset.forName(name.toUpperCase(Locale.ENGLISH));
+            } catch (IllegalCharsetNameException e) {
+                // Decoded as UTF-8
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Checks whether some bytes start with a given prefix
+     *
+     * @param bytes  the bytes
+     * @param prefix the expected first bytes, as unsigned values
+     * @return true if the bytes start with the prefix
+     */
+    private static boolean startsWith(byte[] bytes, int... prefix) {
+        if (bytes.length < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if ((bytes[i] & 0xFF) != prefix[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Reads the whole page, token by token
+     */
+    private void scan() {
+        int textStart = 0;
+        while (position < length) {
+            int open = html.indexOf('<', position);
+            if (open < 0 || open + 1 >= length)
+                break;
+            char next = html.charAt(open + 1);
+            if (!isLetter(next) && next != '/' && next != '!' && next != '?') {
+                position = open + 1;
+                continue;
+            }
+            text(textStart, open, true);
+            position = open;
+            if (next == '/')
+                endTag();
+            else if (next == '!')
+                declaration();
+            else if (next == '?')
+                bogusComment();
+            else if (!startTag())
+                return;
+            textStart = position;
+        }
+        text(textStart, length, true);
+    }
+
+    /**
+     * Reads a start tag, and the content of the elements whose content is not HTML
+     *
+     * @return false if the rest of the page is plain text
+     */
+    private boolean startTag() {
+        position++;
+        String name = tagName();
+        String href = null;
+        boolean selfClosing = false;
+        // Like Jsoup, a tag name followed by < ends the tag, the < starting the next token
+        boolean ended = position < length && html.charAt(position) == '<';
+        // The attributes, of which only href matters
+        while (!ended) {
+            skipWhitespace();
+            if (position >= length)
+                return false;
+            char c = html.charAt(position);
+            if (c == '>') {
+                position++;
+                ended = true;
+            } else if (c == '/') {
+                position++;
+                if (position < length && html.charAt(position) == '>') {
+                    position++;
+                    selfClosing = true;
+                    ended = true;
+                }
+            } else {
+                int start = position++;
+                while (position < length && !isWhitespace(c = html.charAt(position)) && c != '/' && c != '='
+                        && c != '>')
+                    position++;
+                boolean isHref = position - start == 4 && html.regionMatches(true, start, "href", 0, 4);
+                String value = attributeValue();
+                if (isHref)
+                    href = value.indexOf('&') < 0 ? value : decode(value, true);
+            }
+        }
+        if (!start(name, href))
+            return true;
+        if (selfClosing) {
+            // Jsoup closes at once a self-closing element, except the void elements that are never opened
+            if (!Tag.valueOf(name).isEmpty())
+                end(name);
+        } else if (name.equals("plaintext")) {
+            text(position, length, false);
+            position = length;
+            return false;
+        } else if (name.equals("pre") || name.equals("listing")) {
+            // The newline right after the start tag is ignored
+            if (position < length && html.charAt(position) == '\n')
+                position++;
+        } else if (DATA.contains(name)) {
+            position = rawEnd(name);
+        } else if (RAWTEXT.contains(name)) {
+            int end = rawEnd(name);
+            text(position, end, false);
+            position = end;
+        } else if (RCDATA.contains(name)) {
+            int end = rawEnd(name);
+            if (end < length) {
+                text(position, end, true);
+                position = end;
+            } else {
+                // Without an end tag, Jsoup ends the element at the first tag instead of at the end of the page
+                int tag = position;
+                while ((tag = html.indexOf('<', tag)) >= 0 && (tag + 1 >= length || !isLetter(html.charAt(tag + 1))))
+                    tag++;
+                end = tag < 0 ? length : tag;
+                text(position, end, true);
+                position = end;
+                end(name);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the value of an attribute, after its name
+     *
+     * @return the raw value, an empty string for an attribute without value
+     */
+    private String attributeValue() {
+        int afterName = position;
+        skipWhitespace();
+        if (position >= length || html.charAt(position) != '=') {
+            position = afterName;
+            return "";
+        }
+        position++;
+        skipWhitespace();
+        if (position >= length)
+            return "";
+        char quote = html.charAt(position);
+        if (quote == '"' || quote == '\'') {
+            int end = html.indexOf(quote, position + 1);
+            if (end < 0)
+                end = length;
+            String value = html.substring(position + 1, end);
+            position = Math.min(end + 1, length);
+            return value;
+        }
+        int start = position;
+        char c;
+        while (position < length && !isWhitespace(c = html.charAt(position)) && c != '>')
+            position++;
+        return html.substring(start, position);
+    }
+
+    /**
+     * Reads an end tag, or the bogus comment replacing a malformed one
+     */
+    private void endTag() {
+        position += 2;
+        if (position >= length)
+            return;
+        char c = html.charAt(position);
+        if (c == '>') {
+            position++;
+            return;
+        }
+        if (!isLetter(c)) {
+            bogusComment();
+            return;
+        }
+        String name = tagName();
+        skipPast(">");
+        end(name);
+    }
+
+    /**
+     * Reads a comment, a doctype, a CDATA section or a bogus comment
+     */
+    private void declaration() {
+        if (html.startsWith("<!--", position)) {
+            clearTails();
+            position += 4;
+            if (html.startsWith(">", position) || html.startsWith("->", position)) {
+                skipPast(">");
+                return;
+            }
+            int end = html.indexOf("-->", position);
+            int bang = html.indexOf("--!>", position);
+            if (end < 0 || (bang >= 0 && bang < end))
+                position = bang < 0 ? length : bang + 4;
+            else
+                position = end + 3;
+        } else if (html.startsWith("<![CDATA[", position)) {
+            int start = position + 9;
+            int end = html.indexOf("]]>", start);
+            if (end < 0)
+                end = length;
+            text(start, end, false);
+            position = Math.min(end + 3, length);
+        } else {
+            bogusComment();
+        }
+    }
+
+    /**
+     * Reads a bogus comment, such as a processing instruction
+     */
+    private void bogusComment() {
+        clearTails();
+        skipPast(">");
+    }
+
+    /**
+     * Processes the start of an element
+     *
+     * @param name the name of the element
+     * @param href the value of its href attribute, null if it has none
+     * @return true if the element was opened, false if it is void or ignored
+     */
+    private boolean start(String name, String href) {
+        clearTails();
+        if (!HEAD.contains(name))
+            inBody = true;
+        if (name.equals("html") || name.equals("head") || name.equals("body"))
+            return false;
+        if (inSelect) {
+            if (SELECT_CLOSERS.contains(name) || ((TABLE_PARTS.contains(name) || name.equals("table"))
+                    && lastIndexOf("table") < lastIndexOf("select"))) {
+                popUntil(lastIndexOf("select"));
+                if (name.equals("select"))
+                    return false;
+            } else if (name.equals("option") || name.equals("optgroup")) {
+                if (stack.get(stack.size() - 1).name.equals("option"))
+                    popUntil(stack.size() - 1);
+                if (name.equals("optgroup") && stack.get(stack.size() - 1).name.equals("optgroup"))
+                    popUntil(stack.size() - 1);
+            } else if (!name.equals("script")) {
+                // Any other element is ignored
+                return false;
+            }
+        }
+        if (TABLE_PARTS.contains(name) || name.equals("table")) {
+            int table = lastIndexOf("table");
+            if (table == stack.size()) {
+                // The parts of a table are ignored outside a table
+                if (!name.equals("table"))
+                    return false;
+            } else if (name.equals("table")) {
+                // A table directly in a table closes it
+                if (lastIndexOf(TABLE_CELLS, table) == stack.size())
+                    popUntil(table);
+            } else {
+                // A part of a table closes everything opened since the part containing it
+                Set<String> containers = TABLE_CONTAINERS.get(name);
+                int container = table;
+                for (int i = stack.size() - 1; i > table && container == table; i--) {
+                    if (containers.contains(stack.get(i).name))
+                        container = i;
+                }
+                popUntil(container + 1);
+            }
+        }
+        if (name.equals("form")) {
+            // Jsoup ignores a form in a form
+            if (inForm)
+                return false;
+            inForm = true;
+        }
+        closeBefore(name);
+        Tag tag = Tag.valueOf(name);
+        if (tag.isBlock() || name.equals("br"))
+            spaceBeforeBlock();
+        if (href != null) {
+            if (name.equals("a")) {
+                hrefs.add(href);
+            } else if (name.equals("base") && !baseSet) {
+                String base = StringUtil.resolve(baseUri, href);
+                if (!base.isEmpty()) {
+                    baseUri = base;
+                    baseSet = true;
+                }
+            }
+        }
+        if (tag.isEmpty()) {
+            if (tag.isBlock())
+                setTails();
+            return false;
+        }
+        Open element = new Open(name, tag, TARGETS.contains(name));
+        stack.add(element);
+        if (name.equals("select"))
+            inSelect = true;
+        if (element.text != null) {
+            targets.add(element);
+            blocks.add(element);
+        }
+        return true;
+    }
+
+    /**
+     * Closes the elements that the start of an element closes implicitly
+     *
+     * @param name the name of the starting element
+     */
+    private void closeBefore(String name) {
+        if (name.equals("li") || name.equals("dd") || name.equals("dt")) {
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                String open = stack.get(i).name;
+                if (name.equals("li") ? open.equals("li") : open.equals("dd") || open.equals("dt")) {
+                    popUntil(i);
+                    break;
+                }
+                if (SPECIAL.contains(open) && !open.equals("address") && !open.equals("div") && !open.equals("p"))
+                    break;
+            }
+        }
+        if (P_CLOSERS.contains(name) && inScope("p", BUTTON_SCOPE))
+            popUntil(lastIndexOf("p"));
+        if (HEADINGS.contains(name) && !stack.isEmpty() && HEADINGS.contains(stack.get(stack.size() - 1).name))
+            popUntil(stack.size() - 1);
+    }
+
+    /**
+     * Processes the end of an element
+     *
+     * @param name the name of the element
+     */
+    private void end(String name) {
+        clearTails();
+        if (!inBody)
+            return;
+        if (inSelect) {
+            int index = lastIndexOf(name);
+            if (name.equals("select") || ((name.equals("option") || name.equals("optgroup"))
+                    && index == stack.size() - 1))
+                popUntil(index);
+            return;
+        }
+        if (name.equals("table") || TABLE_PARTS.contains(name)) {
+            // The end of a part of the current table closes everything opened inside it
+            int table = lastIndexOf("table");
+            int part = name.equals("table") ? table : lastIndexOf(Collections.singleton(name), table);
+            if (part < stack.size())
+                popUntil(part);
+        } else if (name.equals("form")) {
+            // The form is removed from the stack, the elements opened inside it stay open
+            boolean open = inForm;
+            inForm = false;
+            if (open && inScope("form", null))
+                stack.remove(lastIndexOf("form"));
+        } else if (name.equals("p")) {
+            // Jsoup inserts an empty p for an end tag without a start tag
+            if (!inScope("p", BUTTON_SCOPE))
+                start("p", null);
+            popUntil(lastIndexOf("p"));
+        } else if (name.equals("br")) {
+            start("br", null);
+        } else if (HEADINGS.contains(name)) {
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                String open = stack.get(i).name;
+                if (HEADINGS.contains(open)) {
+                    popUntil(i);
+                    break;
+                }
+                if (SCOPE.contains(open))
+                    break;
+            }
+        } else if (BLOCK_ENDS.contains(name)) {
+            if (inScope(name, name.equals("li") ? LIST_SCOPE : null))
+                popUntil(lastIndexOf(name));
+        } else {
+            // Any other end tag closes its element, unless a special element is open inside it. For a formatting
+            // element, Jsoup then re-creates it inside that block, whose text goes on: the end tag is ignored too
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                String open = stack.get(i).name;
+                if (open.equals(name)) {
+                    popUntil(i);
+                    break;
+                }
+                if (SPECIAL.contains(open))
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Closes the elements of the stack down to the given one, included
+     *
+     * @param index the index of the last element to close
+     */
+    private void popUntil(int index) {
+        while (stack.size() > index) {
+            Open element = stack.remove(stack.size() - 1);
+            if (element.text != null)
+                targets.remove(targets.size() - 1);
+            if (element.name.equals("select"))
+                inSelect = false;
+            clearTails();
+            // The text following a block is separated from the text of the block
+            if (element.tag.isBlock())
+                setTails();
+        }
+    }
+
+    /**
+     * Processes a text between two tags
+     *
+     * @param start  the index of its first character
+     * @param end    the index after its last character
+     * @param decode true if the character references must be decoded
+     */
+    private void text(int start, int end, boolean decode) {
+        if (start >= end)
+            return;
+        if (!inBody) {
+            // Whitespace before the body is ignored, any other text starts it
+            int i = start;
+            while (i < end && isWhitespace(html.charAt(i)))
+                i++;
+            if (i == end)
+                return;
+            inBody = true;
+        }
+        if (targets.isEmpty())
+            return;
+        String text = html.substring(start, end);
+        if (decode && text.indexOf('&') >= 0)
+            text = decode(text, false);
+        boolean preserve = false;
+        for (int i = stack.size() - 1; i >= 0 && i >= stack.size() - 6 && !preserve; i--)
+            preserve = stack.get(i).tag.preserveWhitespace();
+        for (Open target : targets) {
+            StringBuilder accum = target.text;
+            if (target.tail) {
+                target.tail = false;
+                if (!endsWithSpace(accum))
+                    accum.append(' ');
+            }
+            if (preserve)
+                accum.append(text);
+            else
+                StringUtil.appendNormalisedWhitespace(accum, text, endsWithSpace(accum));
+        }
+    }
+
+    /**
+     * Separates the text of the open targeted elements from the text of a block starting in them
+     */
+    private void spaceBeforeBlock() {
+        for (Open target : targets) {
+            if (target.text.length() > 0 && !endsWithSpace(target.text))
+                target.text.append(' ');
+        }
+    }
+
+    /**
+     * Tells the open targeted elements that a block just ended, in case a text follows it
+     */
+    private void setTails() {
+        for (Open target : targets)
+            target.tail = true;
+    }
+
+    /**
+     * Tells the open targeted elements that the last token was not the end of a block
+     */
+    private void clearTails() {
+        for (Open target : targets)
+            target.tail = false;
+    }
+
+    /**
+     * This method will return true if an element is open and no element limiting the scope is open inside it
+     *
+     * @param name  the name of the element
+     * @param limits other elements limiting the scope, or null
+     * @return true if the element is in scope
+     */
+    private boolean inScope(String name, Set<String> limits) {
+        for (int i = stack.size() - 1; i >= 0; i--) {
+            String open = stack.get(i).name;
+            if (open.equals(name))
+                return true;
+            if (SCOPE.contains(open) || (limits != null && limits.contains(open)))
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the index of the innermost open element with the given name
+     *
+     * @param name the name of the element
+     * @return its index in the stack, or the size of the stack if it is not open
+     */
+    private int lastIndexOf(String name) {
+        for (int i = stack.size() - 1; i >= 0; i--) {
+            if (stack.get(i).name.equals(name))
+                return i;
+        }
+        return stack.size();
+    }
+
+    /**
+     * Decodes the character references of a text or of an attribute value, with the rules of the tokeniser of Jsoup.
+     * Parser.unescapeEntities() gives the same result, but creates a whole tokeniser for each call.
+     *
+     * @param text        the raw text
+     * @param inAttribute true for an attribute value, in which a named reference followed by a letter, a digit,
+     *                    =, - or _ is not decoded
+     * @return the decoded text
+     */
+    private static String decode(String text, boolean inAttribute) {
+        StringBuilder decoded = new StringBuilder(text.length());
+        int[] codepoints = new int[2];
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i++);
+            if (c != '&' || i == length) {
+                decoded.append(c);
+                continue;
+            }
+            c = text.charAt(i);
+            if (isWhitespace(c) || c == '<' || c == '&') {
+                decoded.append('&');
+                continue;
+            }
+            if (c == '#') {
+                int start = i + 1;
+                boolean hex = start < length && (text.charAt(start) == 'x' || text.charAt(start) == 'X');
+                if (hex)
+                    start++;
+                int end = start;
+                while (end < length && Character.digit(text.charAt(end), hex ? 16 : 10) >= 0
+                        && text.charAt(end) < 128)
+                    end++;
+                if (end == start) {
+                    decoded.append('&');
+                    continue;
+                }
+                int codepoint;
+                try {
+                    codepoint = Integer.parseInt(text.substring(start, end), hex ? 16 : 10);
+                } catch (NumberFormatException e) {
+                    codepoint = -1;
+                }
+                if (codepoint == -1 || (codepoint >= 0xD800 && codepoint <= 0xDFFF) || codepoint > 0x10FFFF)
+                    codepoint = 0xFFFD;
+                else if (codepoint >= 128 && codepoint < 128 + WINDOWS_1252.length)
+                    codepoint = WINDOWS_1252[codepoint - 128];
+                decoded.appendCodePoint(codepoint);
+                i = end < length && text.charAt(end) == ';' ? end + 1 : end;
+                continue;
+            }
+            // As many letters then digits as possible, which must be the whole name of an entity
+            int end = i;
+            while (end < length && Character.isLetter(text.charAt(end)))
+                end++;
+            while (end < length && text.charAt(end) >= '0' && text.charAt(end) <= '9')
+                end++;
+            String name = text.substring(i, end);
+            boolean semicolon = end < length && text.charAt(end) == ';';
+            boolean found = Entities.isBaseNamedEntity(name) || (Entities.isNamedEntity(name) && semicolon);
+            if (found && inAttribute && end < length) {
+                char next = text.charAt(end);
+                found = !Character.isLetterOrDigit(next) && next != '=' && next != '-' && next != '_';
+            }
+            if (!found) {
+                decoded.append('&');
+                continue;
+            }
+            int count = Entities.codepointsForName(name, codepoints);
+            for (int k = 0; k < count; k++)
+                decoded.appendCodePoint(codepoints[k]);
+            i = semicolon ? end + 1 : end;
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * Gets the index of the outermost open element with one of the given names, above a given index
+     *
+     * @param names the names of the elements
+     * @param above the index above which the elements are searched
+     * @return its index in the stack, or the size of the stack if none is open
+     */
+    private int lastIndexOf(Set<String> names, int above) {
+        for (int i = above + 1; i < stack.size(); i++) {
+            if (names.contains(stack.get(i).name))
+                return i;
+        }
+        return stack.size();
+    }
+
+    /**
+     * Finds the end tag of an element whose content is not HTML
+     *
+     * @param name the name of the element
+     * @return the index of its end tag, or the length of the page if it is never closed
+     */
+    private int rawEnd(String name) {
+        int from = position;
+        while (true) {
+            int end = html.indexOf("</", from);
+            if (end < 0)
+                return length;
+            int after = end + 2 + name.length();
+            if (html.regionMatches(true, end + 2, name, 0, name.length())
+                    && (after >= length || isWhitespace(html.charAt(after)) || html.charAt(after) == '/'
+                    || html.charAt(after) == '>'))
+                return end;
+            from = end + 2;
+        }
+    }
+
+    /**
+     * Reads a tag name, lowercased
+     *
+     * @return the name
+     */
+    private String tagName() {
+        int start = position;
+        char c;
+        while (position < length && !isWhitespace(c = html.charAt(position)) && c != '/' && c != '>' && c != '<')
+            position++;
+        String name = html.substring(start, position);
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isUpperCase(name.charAt(i)))
+                return name.toLowerCase(Locale.ENGLISH);
+        }
+        return name;
+    }
+
+    private void skipWhitespace() {
+        while (position < length && isWhitespace(html.charAt(position)))
+            position++;
+    }
+
+    private void skipPast(String delimiter) {
+        int end = html.indexOf(delimiter, position);
+        position = end < 0 ? length : end + delimiter.length();
+    }
+
+    private static boolean endsWithSpace(StringBuilder accum) {
+        return accum.length() != 0 && accum.charAt(accum.length() - 1) == ' ';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    /**
+     * An open element
+     */
+    private static class Open {
+        final String name;
+        final Tag tag;
+        // The text accumulated so far, null if the element is not targeted
+        final StringBuilder text;
+        // True if the last token was the end of a block inside this element
+        boolean tail = false;
+
+        Open(String name, Tag tag, boolean target) {
+            this.name = name;
+            this.tag = tag;
+            this.text = target ? new StringBuilder() : null;
+        }
+    }
+}
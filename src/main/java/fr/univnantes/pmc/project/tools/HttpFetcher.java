@@ -0,0 +1,242 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fetches Web pages asynchronously with a single HttpClient, whose connections are kept alive and reused between the
+ * pages of a same server, and multiplexed when the server speaks HTTP/2.
+ * <p>
+ * No thread waits for a response: a request is sent, and its future is completed by the client once the whole body
+ * has arrived. At most maxInFlight requests are sent at once, the others wait in a queue and are sent as soon as a
+ * response frees a permit, so that a crawl discovering thousands of pages does not open thousands of connections.
+ * <p>
+ * As with Jsoup, the body of a response is only read if the status is a success and the content type is HTML or
+ * XML, so that the images, PDFs or videos a page links to are never downloaded, and only its first maxBodySize bytes
+ * are kept; the other responses complete with a null body. The body is kept as bytes: its charset may only be
+ * declared in the page itself.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+final class HttpFetcher {
+
+    // The maximum size of a body kept by Jsoup, the bytes after it are dropped
+    static final int DEFAULT_MAX_BODY_SIZE = 1 << 20;
+
+    // The charset parameter of a content type, as Jsoup reads it
+    private static final Pattern CHARSET = Pattern.compile("(?i)\\bcharset=\\s*[\"']?([^\\s,;\"']*)");
+
+    private final HttpClient client;
+    private final Duration timeout;
+    private final Semaphore permits;
+    private final int maxBodySize;
+    // Requests waiting for a permit
+    private final ConcurrentQueue<Runnable> waiting = new MichaelScottQueue<>();
+
+    /**
+     * Create a new HttpFetcher
+     *
+     * @param maxInFlight the maximum number of requests sent at once
+     * @param timeout     the maximum time to connect, and to receive a response once connected
+     * @param maxBodySize the maximum number of bytes kept from the body of a response
+     */
+    HttpFetcher(int maxInFlight, Duration timeout, int maxBodySize) {
+        if (maxBodySize <= 0)
+            throw new IllegalArgumentException("HttpFetcher - maxBodySize must be positive: " + maxBodySize);
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout)
+                // The client runs its short callbacks on virtual threads rather than a growing pool of threads
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.timeout = timeout;
+        this.permits = new Semaphore(maxInFlight);
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Checks whether a content type is one that Jsoup parses
+     *
+     * @param contentType the value of the Content-Type header, or null if there is none
+     * @return true for text, and for the XML types of application
+     */
+    static boolean isDocument(String contentType) {
+        return contentType == null || contentType.startsWith("text/")
+                || contentType.matches("(?i)application/\\w*\\+?xml.*");
+    }
+
+    /**
+     * Fetches a page
+     *
+     * @param address the URL of the page
+     * @param headers the names and values of headers added to the request, alternately
+     * @return a future completed with the response once its body has arrived, or failed with an IOException. The
+     * body is null if the response is not a document.
+     */
+    CompletableFuture<HttpResponse<byte[]>> fetch(String address, String... headers) {
+        CompletableFuture<HttpResponse<byte[]>> response = new CompletableFuture<>();
+        HttpRequest request;
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(address)).timeout(timeout).GET();
+            if (headers.length > 0)
+                builder.headers(headers);
+            request = builder.build();
+        } catch (IllegalArgumentException e) {
+            // Not an http or https URL, or not a valid URL at all
+            response.completeExceptionally(new IOException("Cannot fetch " + address + ": " + e.getMessage(), e));
+            return response;
+        }
+        waiting.enqueue(() -> send(request, response));
+        sendWaiting();
+        return response;
+    }
+
+    /**
+     * Sends a request holding a permit, and frees the permit once the response has arrived
+     *
+     * @param request  the request to send
+     * @param response the future completed with the response
+     */
+    private void send(HttpRequest request, CompletableFuture<HttpResponse<byte[]>> response) {
+        client.sendAsync(request, this::body).whenComplete((result, error) -> {
+            permits.release();
+            sendWaiting();
+            if (error != null)
+                response.completeExceptionally(error);
+            else
+                response.complete(result);
+        });
+    }
+
+    /**
+     * Chooses how the body of a response is read, once its status and headers have arrived
+     *
+     * @param info the status and headers of the response
+     * @return a subscriber discarding the body if the response is not a document, or keeping its first bytes
+     */
+    private HttpResponse.BodySubscriber<byte[]> body(HttpResponse.ResponseInfo info) {
+        String contentType = info.headers().firstValue("Content-Type").orElse(null);
+        // An image or a video may be huge, the connection is closed rather than drained
+        if (!isDocument(contentType))
+            return new CappedBody(0);
+        // The body of an error is usually short, it is drained so that the connection is reused
+        if (info.statusCode() < 200 || info.statusCode() >= 300)
+            return HttpResponse.BodySubscribers.replacing(null);
+        return new CappedBody(maxBodySize);
+    }
+
+    /**
+     * Gets the charset of a body from its content type, as Jsoup does
+     *
+     * @param contentType the value of the Content-Type header, or null if there is none
+     * @return the name of the charset, or null if it is not given or not supported
+     */
+    static String charset(String contentType) {
+        if (contentType == null)
+            return null;
+        Matcher matcher = CHARSET.matcher(contentType);
+        if (!matcher.find())
+            return null;
+        String name = matcher.group(1).trim();
+        try {
+            if (Charset.isSupported(name))
+                return name;
+            name = name.toUpperCase(Locale.ENGLISH);
+            if (Charset.isSupported(name))
+                return name;
+        } catch (IllegalCharsetNameException e) {
+            // Not a charset at all
+        }
+        return null;
+    }
+
+    /**
+     * Sends the waiting requests while permits are available.
+     * Called after each enqueue and each release, so that a request never waits while a permit is free: either
+     * the thread enqueueing it sees the released permit, or the thread releasing the permit sees the request.
+     */
+    private void sendWaiting() {
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            Runnable request = waiting.dequeue();
+            if (request == null)
+                permits.release();
+            else
+                request.run();
+        }
+    }
+
+    /**
+     * Keeps the first bytes of a body, and stops reading it once they are all received, closing the connection.
+     * Keeping no byte at all skips the body, which is then null.
+     */
+    private static final class CappedBody implements HttpResponse.BodySubscriber<byte[]> {
+        private final int maxSize;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final CompletableFuture<byte[]> body = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        CappedBody(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (maxSize == 0) {
+                subscription.cancel();
+                body.complete(null);
+                return;
+            }
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            if (body.isDone())
+                return;
+            for (ByteBuffer buffer : buffers) {
+                int length = Math.min(buffer.remaining(), maxSize - bytes.size());
+                byte[] chunk = new byte[length];
+                buffer.get(chunk);
+                bytes.write(chunk, 0, length);
+            }
+            if (bytes.size() >= maxSize) {
+                subscription.cancel();
+                onComplete();
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            body.completeExceptionally(error);
+        }
+
+        @Override
+        public void onComplete() {
+            body.complete(bytes.toByteArray());
+        }
+
+        @Override
+        public CompletionStage<byte[]> getBody() {
+            return body;
+        }
+    }
+}
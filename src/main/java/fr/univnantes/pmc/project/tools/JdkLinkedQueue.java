@@ -0,0 +1,61 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ConcurrentLinkedQueue of the JDK seen as a ConcurrentQueue, used as the reference the queues of the project are
+ * compared to.
+ *
+ * @param <T> the type of the values
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public class JdkLinkedQueue<T> implements ConcurrentQueue<T> {
+
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+    private final WaiterStack waiters = new WaiterStack();
+
+    @Override
+    public boolean enqueue(T value) {
+        queue.add(value);
+        waiters.signalIfWaiting();
+        return true;
+    }
+
+    @Override
+    public int enqueueAll(Collection<? extends T> values) {
+        queue.addAll(values);
+        // One consumer woken per value, as many as if they were enqueued one by one
+        int count = values.size();
+        for (int i = 0; i < count; i++)
+            waiters.signalIfWaiting();
+        return count;
+    }
+
+    @Override
+    public T dequeue() {
+        return queue.poll();
+    }
+
+    @Override
+    public T peek() {
+        return queue.peek();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        return waiters.await(this, false, 0L);
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return waiters.await(this, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+}
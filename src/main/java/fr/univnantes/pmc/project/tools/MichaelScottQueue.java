@@ -1,11 +1,15 @@
 package fr.univnantes.pmc.project.tools;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
-public class MichaelScottQueue<T> {
+public class MichaelScottQueue<T> implements ConcurrentQueue<T> {
 
     private final AtomicReference<Node> head;
     private final AtomicReference<Node> tail;
+    // Stack of the consumers parked in take() or poll(), empty most of the time
+    private final WaiterStack waiters = new WaiterStack();
 
     public MichaelScottQueue() {
         Node start = new Node(null);
@@ -13,7 +17,8 @@ public class MichaelScottQueue<T> {
         tail = new AtomicReference<Node>(start);
     }
 
-    public void enqueue(T value) {
+    @Override
+    public boolean enqueue(T value) {
         Node node = new Node(value);
         while (true) {
             Node last = tail.get();
@@ -21,7 +26,8 @@ public class MichaelScottQueue<T> {
             if (next == null) {
                 if (last.next.compareAndSet(next, node)) {
                     tail.compareAndSet(last, node);
-                    return;
+                    waiters.signalIfWaiting();
+                    return true;
                 }
             } else {
                 tail.compareAndSet(last, next);
@@ -29,6 +35,7 @@ public class MichaelScottQueue<T> {
         }
     }
 
+    @Override
     public T dequeue() {
         while (true) {
             Node first = head.get();
@@ -47,6 +54,113 @@ public class MichaelScottQueue<T> {
         }
     }
 
+    /**
+     * Adds several values at the end of the queue, in order, with a single CAS: the nodes are linked together
+     * before the chain is appended to the last node
+     *
+     * @param values the values to add
+     * @return the number of values added, all of them
+     */
+    @Override
+    public int enqueueAll(Collection<? extends T> values) {
+        Node first = null;
+        Node chainEnd = null;
+        int count = 0;
+        for (T value : values) {
+            Node node = new Node(value);
+            if (first == null)
+                first = node;
+            else
+                chainEnd.next.lazySet(node);
+            chainEnd = node;
+            count++;
+        }
+        if (first == null)
+            return 0;
+
+        while (true) {
+            Node last = tail.get();
+            Node next = last.next.get();
+            if (next == null) {
+                if (last.next.compareAndSet(next, first)) {
+                    // If another thread moved the tail into the chain meanwhile, it keeps moving it to the end
+                    tail.compareAndSet(last, chainEnd);
+                    for (int i = 0; i < count; i++)
+                        waiters.signalIfWaiting();
+                    return count;
+                }
+            } else {
+                tail.compareAndSet(last, next);
+            }
+        }
+    }
+
+    /**
+     * Removes several values from the front of the queue with a single CAS moving the head over all of their nodes.
+     * The walk stops at the tail read before it, so that it only crosses nodes that are fully linked.
+     *
+     * @param target the collection receiving the values
+     * @param max    the maximum number of values removed
+     * @return the number of values removed, 0 if the queue is empty
+     */
+    @Override
+    public int drainTo(Collection<? super T> target, int max) {
+        while (true) {
+            Node first = head.get();
+            Node last = tail.get();
+            Node next = first.next.get();
+            if (first == last) {
+                if (next == null || max <= 0)
+                    return 0;
+                tail.compareAndSet(last, next);
+                continue;
+            }
+            // The node that becomes the new head, its value is the last one removed
+            Node end = first;
+            int count = 0;
+            while (count < max && end != last) {
+                end = end.next.get();
+                count++;
+            }
+            if (head.compareAndSet(first, end)) {
+                for (Node node = first; node != end; ) {
+                    node = node.next.get();
+                    target.add(node.value);
+                }
+                return count;
+            }
+        }
+    }
+
+    @Override
+    public T peek() {
+        while (true) {
+            Node first = head.get();
+            Node next = first.next.get();
+            if (next == null)
+                return null;
+            T value = next.value;
+            // The value is only returned if it was still in the queue when read
+            if (head.get() == first)
+                return value;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head.get().next.get() == null;
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        return waiters.await(this, false, 0L);
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return waiters.await(this, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
     private class Node {
         public T value;
         public AtomicReference<Node> next = new AtomicReference<Node>(null);
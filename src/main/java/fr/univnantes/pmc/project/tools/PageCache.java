@@ -0,0 +1,329 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache on disk of the pages fetched by WebGrep, so that a new crawl of a site only downloads the pages that
+ * changed since the last one.
+ * <p>
+ * Each page is stored as two gzipped objects named after the SHA-256 of their content: its body, as it was received
+ * so that it is decoded the same way if it is parsed again, and its PageText, so that a page that did not change is
+ * neither downloaded nor parsed again. Two pages with the same content share their objects. An object is written to
+ * a temporary file and then renamed, so that it is either complete or absent.
+ * <p>
+ * The index, from the URL of a page to its objects and to the ETag, Last-Modified and charset of its response, is an
+ * append-only file: a page fetched again simply gets a new record, and the last record of a URL wins. It is
+ * memory-mapped and read once when the cache is opened; a record cut by a crash is dropped.
+ * <p>
+ * The page is then fetched with If-None-Match and If-Modified-Since, and a 304 Not Modified response is answered
+ * from the cache.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+final class PageCache {
+
+    private static final int MAGIC = 0x57474332; // "WGC2"
+    // The first version kept the bodies decoded, without their charset
+    private static final int MAGIC_V1 = 0x57474331; // "WGC1"
+
+    private final Path objects;
+    private final FileChannel index;
+    // Guarded by the index channel
+    private long indexEnd;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Opens the cache stored in a directory, creating it if needed
+     *
+     * @param directory the directory of the cache
+     * @throws IOException if the directory cannot be created or its index cannot be read
+     */
+    PageCache(Path directory) throws IOException {
+        this.objects = directory.resolve("objects");
+        Files.createDirectories(objects);
+        Path indexFile = directory.resolve("index");
+        this.index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = index.size();
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        if (size >= 4 && index.read(magic, 0) == 4 && magic.getInt(0) == MAGIC_V1) {
+            // A body decoded with the wrong charset cannot be decoded again, the pages are fetched again
+            index.truncate(0);
+            size = 0;
+        }
+        if (size == 0) {
+            index.write(ByteBuffer.allocate(4).putInt(0, MAGIC), 0);
+            indexEnd = 4;
+            return;
+        }
+        MappedByteBuffer map = index.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (size < 4 || map.getInt(0) != MAGIC)
+            throw new IOException("PageCache - not the index of a cache: " + indexFile);
+        map.position(4);
+        while (map.remaining() >= 4) {
+            int length = map.getInt(map.position());
+            if (length < 0 || length > map.remaining() - 4)
+                break;
+            map.position(map.position() + 4);
+            ByteBuffer record = map.slice(map.position(), length);
+            map.position(map.position() + length);
+            String address = readString(record);
+            entries.put(address, new Entry(readString(record), readString(record), readString(record),
+                    readString(record), readString(record), readString(record)));
+        }
+        indexEnd = map.position();
+        // The end of a record whose writing was interrupted
+        if (indexEnd < size)
+            index.truncate(indexEnd);
+    }
+
+    /**
+     * Gets what the cache knows of a page
+     *
+     * @param address the URL of the page
+     * @return the entry of the page, or null if it is not in the cache or its objects were removed
+     */
+    Entry lookup(String address) {
+        Entry entry = entries.get(address);
+        if (entry == null || !Files.exists(object(entry.text)) && !Files.exists(object(entry.body)))
+            return null;
+        return entry;
+    }
+
+    /**
+     * Reads the PageText of a cached page
+     *
+     * @param entry the entry of the page
+     * @return the text and hyperlinks of the page, or null if its object was removed
+     * @throws IOException if the object cannot be read
+     */
+    PageText text(Entry entry) throws IOException {
+        byte[] content = read(object(entry.text));
+        if (content == null)
+            return null;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        List<String> blocks = readStrings(in);
+        List<String> hrefs = readStrings(in);
+        return new PageText(blocks, hrefs);
+    }
+
+    /**
+     * Reads the body of a cached page, as it was received
+     *
+     * @param entry the entry of the page
+     * @return the bytes of the body, or null if its object was removed
+     * @throws IOException if the object cannot be read
+     */
+    byte[] body(Entry entry) throws IOException {
+        return read(object(entry.body));
+    }
+
+    /**
+     * Stores a fetched page, unless its response had neither an ETag nor a Last-Modified header to revalidate it with
+     *
+     * @param address      the URL of the page
+     * @param baseUri      the URL against which its hyperlinks are resolved
+     * @param body         the body of the page, as it was received
+     * @param charset      the charset given by the Content-Type header of the response, or null
+     * @param text         the text and hyperlinks extracted from the body
+     * @param etag         the ETag header of the response, or null
+     * @param lastModified the Last-Modified header of the response, or null
+     * @throws IOException if the page cannot be written
+     */
+    void store(String address, String baseUri, byte[] body, String charset, PageText text, String etag,
+               String lastModified) throws IOException {
+        if (etag == null && lastModified == null)
+            return;
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(serialized);
+        writeStrings(out, text.blocks);
+        writeStrings(out, text.hrefs);
+        String bodyHash = write(body);
+        String textHash = write(serialized.toByteArray());
+        Entry entry = new Entry(baseUri, etag, lastModified, charset, bodyHash, textHash);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(record);
+        fields.writeInt(0);
+        for (String field : new String[]{address, baseUri, etag, lastModified, charset, bodyHash, textHash})
+            writeString(fields, field);
+        ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+        buffer.putInt(0, buffer.capacity() - 4);
+        synchronized (index) {
+            long position = indexEnd;
+            while (buffer.hasRemaining())
+                position += index.write(buffer, position);
+            indexEnd = position;
+            // Put under the lock, so that the entry in memory is the last record of the URL in the index
+            entries.put(address, entry);
+        }
+    }
+
+    /**
+     * Gets the file of an object
+     *
+     * @param hash the SHA-256 of the content of the object, in hexadecimal
+     * @return the path of the object, in a subdirectory named after the first byte of the hash
+     */
+    private Path object(String hash) {
+        return objects.resolve(hash.substring(0, 2)).resolve(hash.substring(2) + ".gz");
+    }
+
+    /**
+     * Writes an object, unless an object with the same content already exists
+     *
+     * @param content the content of the object
+     * @return the SHA-256 of the content, in hexadecimal
+     * @throws IOException if the object cannot be written
+     */
+    private String write(byte[] content) throws IOException {
+        String hash;
+        try {
+            hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform must support SHA-256
+            throw new IllegalStateException(e);
+        }
+        Path object = object(hash);
+        if (Files.exists(object))
+            return hash;
+        Files.createDirectories(object.getParent());
+        Path temporary = Files.createTempFile(object.getParent(), null, ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary))) {
+                out.write(content);
+            }
+            Files.move(temporary, object, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Written by another thread in the meantime, with the same content
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return hash;
+    }
+
+    /**
+     * Reads an object
+     *
+     * @param object the path of the object
+     * @return the content of the object, or null if it does not exist
+     * @throws IOException if the object cannot be read
+     */
+    private static byte[] read(Path object) throws IOException {
+        if (!Files.exists(object))
+            return null;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(object))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Reads a string of the index, stored as its length in bytes, -1 for null, followed by its bytes in UTF-8
+     *
+     * @param record the record being read
+     * @return the string
+     */
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a string the way readString reads it
+     *
+     * @param out   the stream written
+     * @param value the string, or null
+     * @throws IOException if the stream cannot be written
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a list of strings, stored as its size followed by its strings
+     *
+     * @param in the stream read
+     * @return the strings
+     * @throws IOException if the stream is cut
+     */
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    /**
+     * Writes a list of strings the way readStrings reads it
+     *
+     * @param out    the stream written
+     * @param values the strings, not null
+     * @throws IOException if the stream cannot be written
+     */
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values)
+            writeString(out, value);
+    }
+
+    /**
+     * What the cache knows of a page
+     */
+    static final class Entry {
+        final String baseUri;
+        final String etag;
+        final String lastModified;
+        // The charset given by the Content-Type header of the response, null if there was none
+        final String charset;
+        // The SHA-256 of the objects of the page
+        final String body;
+        final String text;
+
+        Entry(String baseUri, String etag, String lastModified, String charset, String body, String text) {
+            this.baseUri = baseUri;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.charset = charset;
+            this.body = body;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.util.List;
+
+/**
+ * What is kept of the HTML of a Web page before the pattern is searched: the text of its h1, h2, h3, h4, h5, p, dt
+ * and dd elements, and its hyperlinks. It does not depend on the pattern, so that PageCache can store it and a page
+ * that did not change is never parsed again.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+final class PageText {
+
+    final List<String> blocks;
+    final List<String> hrefs;
+
+    /**
+     * Create a new PageText
+     *
+     * @param blocks the text of the targeted elements, in the order of the page
+     * @param hrefs  the absolute URLs of the hyperlinks, without their fragment
+     */
+    PageText(List<String> blocks, List<String> hrefs) {
+        this.blocks = blocks;
+        this.hrefs = hrefs;
+    }
+}
@@ -0,0 +1,76 @@
+package fr.univnantes.pmc.project.tools;
+
+/**
+ * The implementations of ConcurrentQueue that can back the ThreadPool and the printing of WebGrep.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public enum QueueType {
+    /**
+     * The ConcurrentLinkedQueue of the JDK
+     */
+    JDK,
+    /**
+     * Our MichaelScottQueue, a linked list allocating a node per value
+     */
+    MICHAEL_SCOTT,
+    /**
+     * Our FAAArrayQueue, linked array segments whose slots are claimed with fetch-and-add
+     */
+    FETCH_AND_ADD,
+    /**
+     * Our RingBufferQueue, bounded and allocating nothing per value
+     */
+    RING_BUFFER;
+
+    /**
+     * This method will return true if the queues of this type can be full
+     *
+     * @return true if the queues are bounded
+     */
+    public boolean isBounded() {
+        return this == RING_BUFFER;
+    }
+
+    /**
+     * Creates an empty queue of this type
+     *
+     * @param capacity the capacity of the queue, only used if the queues of this type are bounded
+     * @param <T>      the type of the values
+     * @return the new queue
+     */
+    public <T> ConcurrentQueue<T> create(int capacity) {
+        switch (this) {
+            case MICHAEL_SCOTT:
+                return new MichaelScottQueue<>();
+            case FETCH_AND_ADD:
+                return new FAAArrayQueue<>();
+            case RING_BUFFER:
+                return new RingBufferQueue<>(capacity);
+            default:
+                return new JdkLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Gets a queue type from its name on the command line
+     *
+     * @param name jdk, ms, faa or ring
+     * @return the matching queue type
+     */
+    public static QueueType fromName(String name) {
+        switch (name) {
+            case "jdk":
+                return JDK;
+            case "ms":
+                return MICHAEL_SCOTT;
+            case "faa":
+                return FETCH_AND_ADD;
+            case "ring":
+                return RING_BUFFER;
+            default:
+                throw new IllegalArgumentException("Unknown queue: " + name);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue for any number of producers and consumers, backed by a ring buffer.
+ * <p>
+ * This is the queue of Dmitry Vyukov: each slot has a sequence number telling whether it is free for the producer
+ * of a given position or full for its consumer, so a producer or consumer claims its position with a single CAS on
+ * the tail or head index and never waits for the others. Unlike MichaelScottQueue, an operation allocates nothing.
+ * The head and tail indices are kept on distinct cache lines, so that producers and consumers do not slow each other
+ * down through false sharing.
+ *
+ * @param <T> the type of the values
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ * @see <a href="https://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue">Bounded MPMC queue</a>
+ */
+public class RingBufferQueue<T> implements ConcurrentQueue<T> {
+
+    // The indices are 128 bytes apart in their array, more than a cache line even with adjacent line prefetching
+    private static final int HEAD = 16;
+    private static final int TAIL = 32;
+    private static final int INDICES = 48;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<T> values;
+    private final AtomicLongArray indices = new AtomicLongArray(INDICES);
+    private final WaiterStack waiters = new WaiterStack();
+
+    /**
+     * Create a new empty RingBufferQueue
+     *
+     * @param capacity the maximum number of values, rounded up to a power of two
+     */
+    public RingBufferQueue(int capacity) {
+        if (capacity < 2 || capacity > (1 << 30))
+            throw new IllegalArgumentException("RingBufferQueue - capacity must be between 2 and 2^30");
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        values = new AtomicReferenceArray<>(size);
+        // Slot i is free for the producer of position i
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    @Override
+    public boolean enqueue(T value) {
+        long position = indices.get(TAIL);
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.getAcquire(index) - position;
+            if (difference == 0) {
+                if (indices.compareAndSet(TAIL, position, position + 1)) {
+                    values.setPlain(index, value);
+                    // Publishes the value to the consumer of this position
+                    sequences.setRelease(index, position + 1);
+                    waiters.signalIfWaiting();
+                    return true;
+                }
+                position = indices.get(TAIL);
+            } else if (difference < 0) {
+                // The slot still holds the value of the previous turn: the queue is full
+                return false;
+            } else {
+                // Another producer took this position
+                position = indices.get(TAIL);
+            }
+        }
+    }
+
+    @Override
+    public T dequeue() {
+        long position = indices.get(HEAD);
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.getAcquire(index) - (position + 1);
+            if (difference == 0) {
+                if (indices.compareAndSet(HEAD, position, position + 1)) {
+                    T value = values.getPlain(index);
+                    values.setPlain(index, null);
+                    // Frees the slot for the producer of the next turn
+                    sequences.setRelease(index, position + mask + 1);
+                    return value;
+                }
+                position = indices.get(HEAD);
+            } else if (difference < 0) {
+                // The producer of this position has not published its value yet: the queue is empty
+                return null;
+            } else {
+                // Another consumer took this position
+                position = indices.get(HEAD);
+            }
+        }
+    }
+
+    @Override
+    public T peek() {
+        while (true) {
+            long position = indices.get(HEAD);
+            int index = (int) position & mask;
+            if (sequences.getAcquire(index) != position + 1)
+                return null;
+            T value = values.getPlain(index);
+            // The value is only returned if no consumer took it meanwhile
+            if (indices.get(HEAD) == position && value != null)
+                return value;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long position = indices.get(HEAD);
+        return sequences.getAcquire((int) position & mask) != position + 1;
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        return waiters.await(this, false, 0L);
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return waiters.await(this, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    @Override
+    public int capacity() {
+        return mask + 1;
+    }
+}
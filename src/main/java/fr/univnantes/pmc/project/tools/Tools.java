@@ -1,15 +1,30 @@
 package fr.univnantes.pmc.project.tools;
 
 import fr.univnantes.pmc.project.api.ParsedPage;
+import fr.univnantes.pmc.project.threadpool.IdleStrategy;
+import fr.univnantes.pmc.project.threadpool.RejectionPolicy;
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
+import org.jsoup.UnsupportedMimeTypeException;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 /**
@@ -22,8 +37,32 @@ import java.util.regex.Pattern;
  */
 public final class Tools {
 
+    private static final int HTTP_NOT_MODIFIED = 304;
+
     private static Pattern matchPattern = null;
+    private static BlockMatcher blockMatcher = null;
     private static int nbThreads = 1;
+    private static int maxThreads = 0; // --max-threads=
+    private static IdleStrategy idleStrategy = IdleStrategy.PARK; // --idle=
+    private static boolean workStealing = false; // --work-stealing
+    private static int batchSize = 1; // --batch=
+    private static boolean virtualThreads = false; // --virtual-threads
+    private static int queueCapacity = 0; // --queue-capacity=
+    private static RejectionPolicy rejectionPolicy = RejectionPolicy.BLOCK; // --rejection-policy=
+    private static int metricsPeriod = 0; // --metrics=
+    private static QueueType queueType = QueueType.JDK; // --queue=
+    private static boolean asyncFetch = false; // --async
+    private static int maxInFlight = 512; // --max-in-flight=
+    private static int timeout = 30000; // --timeout=
+    private static HttpFetcher fetcher = null;
+    private static int perHost = 0; // --per-host=
+    private static int hostDelay = 0; // --host-delay=
+    private static boolean streaming = false; // --streaming
+    private static PageCache cache = null; // --cache=
+    private static Path resume = null; // --resume=
+    private static int maxPages = 0; // --max-pages=
+    private static int maxDepth = -1; // --max-depth=
+    private static int memoryBudget = 0; // --memory=
     private static final List<String> startingURL = new LinkedList<String>();
     private static boolean count = false; // -c --count
     private static boolean emphasize = false; // -e --emphasize
@@ -54,6 +93,7 @@ public final class Tools {
      */
     public static void setRegularExpression(String regExp) {
         matchPattern = Pattern.compile(regExp, Pattern.DOTALL);
+        blockMatcher = new BlockMatcher(matchPattern);
     }
 
     /**
@@ -65,6 +105,159 @@ public final class Tools {
         return nbThreads;
     }
 
+    /**
+     * Gets the maximum number of threads the pool may grow to when pages wait to be explored
+     *
+     * @return the maximum number of threads, 0 if the number of threads is fixed
+     */
+    public static int maxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Gets what the threads do while they have nothing to process
+     *
+     * @return the idle strategy of the threads
+     */
+    public static IdleStrategy idleStrategy() {
+        return idleStrategy;
+    }
+
+    /**
+     * Gets whether the threads steal the tasks of each other instead of sharing a single queue
+     *
+     * @return true if work stealing is enabled
+     */
+    public static boolean workStealing() {
+        return workStealing;
+    }
+
+    /**
+     * Gets the number of pages a thread takes from the shared queue at once
+     *
+     * @return the size of the batches
+     */
+    public static int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Gets whether the threads are virtual threads, which can block on the network at a very low cost
+     *
+     * @return true if virtual threads are used
+     */
+    public static boolean virtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Gets the maximum number of pages waiting to be explored
+     *
+     * @return the capacity of the task queue, 0 if it is unbounded
+     */
+    public static int queueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Gets what happens to a page discovered while the task queue is full
+     *
+     * @return the rejection policy of the task queue
+     */
+    public static RejectionPolicy rejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * Gets the implementation of the task queue and of the queue of pages to print
+     *
+     * @return the type of the queues
+     */
+    public static QueueType queueType() {
+        return queueType;
+    }
+
+    /**
+     * Gets whether the pages are fetched asynchronously, without holding a thread during the round-trip
+     *
+     * @return true if the pages must be fetched with fetchAsync
+     */
+    public static boolean asyncFetch() {
+        return asyncFetch && !offline;
+    }
+
+    /**
+     * Gets the maximum number of pages fetched at once from a same host
+     *
+     * @return the maximum number of fetches per host, 0 for no limit
+     */
+    public static int perHost() {
+        return perHost;
+    }
+
+    /**
+     * Gets the minimum time between the start of two fetches on a same host
+     *
+     * @return the delay in milliseconds, 0 for no delay
+     */
+    public static int hostDelay() {
+        return hostDelay;
+    }
+
+    /**
+     * Gets whether the pages are scanned in a single pass instead of being parsed into a Jsoup document
+     *
+     * @return true if the pages are scanned by HtmlScanner
+     */
+    public static boolean streaming() {
+        return streaming;
+    }
+
+    /**
+     * Gets the directory where the crawl is checkpointed, and from which it goes on if it was interrupted
+     *
+     * @return the directory of the CrawlLog, null if the crawl is not checkpointed
+     */
+    public static Path resumeDirectory() {
+        return resume;
+    }
+
+    /**
+     * Gets the maximum number of pages fetched by the crawl
+     *
+     * @return the maximum number of pages, 0 for no limit
+     */
+    public static int maxPages() {
+        return maxPages;
+    }
+
+    /**
+     * Gets the maximum number of links followed from the starting URLs to reach a page
+     *
+     * @return the maximum depth, 0 to only fetch the starting URLs, -1 for no limit
+     */
+    public static int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the memory that the pages waiting to be explored or printed may take
+     *
+     * @return the budget in megabytes, 0 for no limit
+     */
+    public static int memoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Gets the time between two lines of metrics of the thread pool
+     *
+     * @return the period in seconds, 0 if the metrics are disabled
+     */
+    public static int metricsPeriod() {
+        return metricsPeriod;
+    }
+
     /**
      * Gets the list of URLs from which the expression must be recursively searched
      * on the Web These URLs are typically found in the options used to initialize
@@ -122,16 +315,122 @@ public final class Tools {
                     System.out.println(
                             "\t-O, --offline\t\tOpen the local copy of the web page. Useful if a firewall blocks your internet access.");
                     System.out.println("\t    --threads=n\t\t\tParallelizes the search amongst n threads");
+                    System.out.println(
+                            "\t    --max-threads=m\t\tAdd threads up to m while pages wait to be explored, and remove them once idle.");
+                    System.out.println(
+                            "\t    --idle=spin|yield|park\tWhat idle threads do: spin for the lowest latency, or park (default) to free the CPU.");
+                    System.out.println(
+                            "\t    --work-stealing\t\tEach thread keeps the pages it discovers in its own deque, idle threads steal from others.");
+                    System.out.println(
+                            "\t    --batch=n\t\t\tEach thread takes up to n pages from the shared queue at once.");
+                    System.out.println(
+                            "\t    --virtual-threads\t\tRun the n threads as virtual threads, so that waiting for a page costs almost nothing.");
+                    System.out.println(
+                            "\t    --queue-capacity=n\t\tKeep at most n pages waiting to be explored (unbounded by default).");
+                    System.out.println(
+                            "\t    --rejection-policy=p\tWhat to do with a page found while the queue is full: block (default), caller-runs, discard-oldest or abort.");
+                    System.out.println(
+                            "\t    --queue=jdk|ms|faa|ring\tThe queues of pages: the JDK's (default), Michael-Scott's, fetch-and-add segments or a bounded ring buffer.");
+                    System.out.println(
+                            "\t    --async\t\t\tFetch the pages asynchronously over shared connections, the threads only parse them.");
+                    System.out.println(
+                            "\t    --max-in-flight=n\t\tWith --async, send at most n requests at once (512 by default).");
+                    System.out.println(
+                            "\t    --timeout=ms\t\tGive up on a page after ms milliseconds (30000 by default).");
+                    System.out.println(
+                            "\t    --per-host=n\t\tFetch at most n pages at once from a same host, spreading the threads over the hosts.");
+                    System.out.println(
+                            "\t    --host-delay=ms\t\tWait at least ms milliseconds between two fetches on a same host.");
+                    System.out.println(
+                            "\t    --streaming\t\t\tScan the HTML in a single pass instead of building the tree of each page.");
+                    System.out.println(
+                            "\t    --cache=dir\t\tKeep the fetched pages in dir, and only download them again if they changed.");
+                    System.out.println(
+                            "\t    --resume=dir\t\tCheckpoint the crawl in dir, and go on from the last checkpoint if there is one.");
+                    System.out.println(
+                            "\t    --max-pages=n\t\tFetch at most n pages.");
+                    System.out.println(
+                            "\t    --max-depth=d\t\tFollow at most d links from the starting URLs (0 only fetches them).");
+                    System.out.println(
+                            "\t    --memory=mb\t\tKeep the pages waiting to be explored or printed within about mb megabytes, the other pages to explore wait on disk.");
+                    System.out.println(
+                            "\t    --metrics=s\t\tMeasure the thread pool, publish the measures through JMX and print them every s seconds.");
                 }
-                if (input.contains("--threads=")) {
+                if (input.startsWith("--threads=")) {
                     nbThreads = Integer.parseInt(input.substring(10));
                 }
+                if (input.startsWith("--max-threads=")) {
+                    maxThreads = Integer.parseInt(input.substring(14));
+                }
+                if (input.startsWith("--idle=")) {
+                    idleStrategy = IdleStrategy.fromName(input.substring(7));
+                }
+                if (input.equals("--work-stealing")) {
+                    workStealing = true;
+                }
+                if (input.startsWith("--batch=")) {
+                    batchSize = Integer.parseInt(input.substring(8));
+                }
+                if (input.equals("--virtual-threads")) {
+                    virtualThreads = true;
+                }
+                if (input.startsWith("--queue-capacity=")) {
+                    queueCapacity = Integer.parseInt(input.substring(17));
+                }
+                if (input.startsWith("--rejection-policy=")) {
+                    rejectionPolicy = RejectionPolicy.fromName(input.substring(19));
+                }
+                if (input.startsWith("--queue=")) {
+                    queueType = QueueType.fromName(input.substring(8));
+                }
+                if (input.equals("--async")) {
+                    asyncFetch = true;
+                }
+                if (input.startsWith("--max-in-flight=")) {
+                    maxInFlight = Integer.parseInt(input.substring(16));
+                }
+                if (input.startsWith("--timeout=")) {
+                    timeout = Integer.parseInt(input.substring(10));
+                }
+                if (input.startsWith("--per-host=")) {
+                    perHost = Integer.parseInt(input.substring(11));
+                }
+                if (input.startsWith("--host-delay=")) {
+                    hostDelay = Integer.parseInt(input.substring(13));
+                }
+                if (input.equals("--streaming")) {
+                    streaming = true;
+                }
+                if (input.startsWith("--cache=")) {
+                    try {
+                        cache = new PageCache(Paths.get(input.substring(8)));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                if (input.startsWith("--resume=")) {
+                    resume = Paths.get(input.substring(9));
+                }
+                if (input.startsWith("--max-pages=")) {
+                    maxPages = Integer.parseInt(input.substring(12));
+                }
+                if (input.startsWith("--max-depth=")) {
+                    maxDepth = Integer.parseInt(input.substring(12));
+                }
+                if (input.startsWith("--memory=")) {
+                    memoryBudget = Integer.parseInt(input.substring(9));
+                }
+                if (input.startsWith("--metrics=")) {
+                    metricsPeriod = Integer.parseInt(input.substring(10));
+                }
             } else if (matchPattern == null) {
                 setRegularExpression(input);
             } else {
                 startingURL.add(input);
             }
         }
+        if (asyncFetch())
+            fetcher = new HttpFetcher(maxInFlight, Duration.ofMillis(timeout), HttpFetcher.DEFAULT_MAX_BODY_SIZE);
     }
 
     /**
@@ -154,24 +453,205 @@ public final class Tools {
      * @throws IOException if the specified URL cannot be reached
      */
     public static ParsedPage parsePage(final String address) throws IOException {
-        Document doc;
         if (offline) {
             File input = new File(address);
-            doc = Jsoup.parse(input, "UTF-8", address);
-        } else {
-            doc = Jsoup.connect(address).get();
+            if (streaming)
+                return page(address, HtmlScanner.scan(address, Files.readAllBytes(input.toPath()), "UTF-8"));
+            return page(address, extract(Jsoup.parse(input, "UTF-8", address)));
         }
-        // Search for the regular expression in the page
-        final List<String> matches = new LinkedList<String>();
+        if (cache == null && !streaming)
+            return page(address, extract(Jsoup.connect(address).timeout(timeout).get()));
+
+        PageCache.Entry cached = cache == null ? null : cache.lookup(address);
+        Connection connection = Jsoup.connect(address).timeout(timeout);
+        if (cached != null && cached.etag != null)
+            connection.header("If-None-Match", cached.etag);
+        if (cached != null && cached.lastModified != null)
+            connection.header("If-Modified-Since", cached.lastModified);
+        Connection.Response response = connection.execute();
+        if (cached != null && response.statusCode() == HTTP_NOT_MODIFIED)
+            return page(address, cachedText(cached));
+        String baseUri = response.url().toExternalForm();
+        // The body is decoded as Connection.get() does, from its bytes, which are what the cache keeps
+        byte[] body = response.bodyAsBytes();
+        PageText text = extract(baseUri, body, response.charset(), streaming);
+        if (cache != null)
+            cache.store(address, baseUri, body, response.charset(), text, response.header("ETag"),
+                    response.header("Last-Modified"));
+        return page(address, text);
+    }
+
+    /**
+     * Starts fetching a Web page without waiting for it, only usable if asyncFetch() is true.
+     * No thread is held until the whole body has arrived; the page is then parsed with parsePage(address, response).
+     * If the page is in the cache, it is only downloaded if it changed.
+     *
+     * @param address the URL of the Web page to fetch
+     * @return a future completed with the response, or failed with an IOException if the URL cannot be reached
+     */
+    public static CompletableFuture<HttpResponse<byte[]>> fetchAsync(final String address) {
+        PageCache.Entry cached = cache == null ? null : cache.lookup(address);
+        if (cached == null)
+            return fetcher.fetch(address);
+        List<String> headers = new ArrayList<>(4);
+        if (cached.etag != null)
+            Collections.addAll(headers, "If-None-Match", cached.etag);
+        if (cached.lastModified != null)
+            Collections.addAll(headers, "If-Modified-Since", cached.lastModified);
+        return fetcher.fetch(address, headers.toArray(new String[0]));
+    }
+
+    /**
+     * Researches expressions matching the pattern, as well as hyperlinks, in a Web page fetched by fetchAsync.
+     * The responses that Jsoup would reject are rejected the same way.
+     *
+     * @param address  the URL of the Web page
+     * @param response the response to the request of the page
+     * @return a representation of the Web page, including its matching expressions and hyperlinks
+     * @throws IOException if the response is an HTTP error or is not an HTML or XML document
+     */
+    public static ParsedPage parsePage(final String address, HttpResponse<byte[]> response) throws IOException {
+        int status = response.statusCode();
+        if (status < 200 || status >= 400)
+            throw new HttpStatusException("HTTP error fetching URL", status, address);
+        if (status == HTTP_NOT_MODIFIED && cache != null) {
+            PageCache.Entry cached = cache.lookup(address);
+            if (cached == null)
+                throw new IOException("The page is no longer in the cache: " + address);
+            return page(address, cachedText(cached));
+        }
+        String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        if (!HttpFetcher.isDocument(contentType))
+            throw new UnsupportedMimeTypeException("Unhandled content type", contentType, address);
+        // The body of the other redirections was not read
+        if (response.body() == null)
+            throw new HttpStatusException("HTTP error fetching URL", status, address);
+        // The links are resolved against the address the redirections led to
+        String baseUri = response.uri().toString();
+        // The body is decoded as Connection.get() does, from its bytes, which are what the cache keeps
+        String charset = HttpFetcher.charset(contentType);
+        PageText text = extract(baseUri, response.body(), charset, streaming);
+        if (cache != null)
+            cache.store(address, baseUri, response.body(), charset, text,
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null));
+        return page(address, text);
+    }
+
+    /**
+     * Gets the text of a page that did not change since it was cached, parsing its cached HTML again only if its
+     * text was removed from the cache
+     *
+     * @param cached the entry of the page in the cache
+     * @return the text and hyperlinks of the page
+     * @throws IOException if the page cannot be read from the cache
+     */
+    private static PageText cachedText(PageCache.Entry cached) throws IOException {
+        PageText text = cache.text(cached);
+        if (text != null)
+            return text;
+        byte[] body = cache.body(cached);
+        if (body == null)
+            throw new IOException("The page is no longer in the cache: " + cached.baseUri);
+        return extract(cached.baseUri, body, cached.charset, streaming);
+    }
+
+    /**
+     * Researches expressions matching the pattern, as well as hyperlinks, in the HTML of a Web page
+     *
+     * @param address   the URL of the Web page
+     * @param baseUri   the URL against which the hyperlinks are resolved
+     * @param html      the HTML of the page
+     * @param streaming true to scan the HTML in a single pass, false to parse it into a Jsoup document
+     * @return a representation of the Web page, including its matching expressions and hyperlinks
+     */
+    public static ParsedPage parseHtml(final String address, String baseUri, String html, boolean streaming) {
+        return page(address, extract(baseUri, html, streaming));
+    }
+
+    /**
+     * Extracts the text of the targeted elements, as well as the hyperlinks, from the HTML of a Web page
+     *
+     * @param baseUri   the URL against which the hyperlinks are resolved
+     * @param html      the HTML of the page
+     * @param streaming true to scan the HTML in a single pass, false to parse it into a Jsoup document
+     * @return the text and hyperlinks of the page
+     */
+    private static PageText extract(String baseUri, String html, boolean streaming) {
+        if (streaming)
+            return HtmlScanner.scan(baseUri, html);
+        return extract(Jsoup.parse(html, baseUri));
+    }
+
+    /**
+     * Extracts the text of the targeted elements, as well as the hyperlinks, from the body of a Web page as it was
+     * received. Both parsers look for its charset in its byte order mark, then in the Content-Type header, then in
+     * its meta elements.
+     *
+     * @param baseUri   the URL against which the hyperlinks are resolved
+     * @param body      the bytes of the body of the page
+     * @param charset   the charset given by the Content-Type header, or null if there is none
+     * @param streaming true to scan the HTML in a single pass, false to parse it into a Jsoup document
+     * @return the text and hyperlinks of the page
+     * @throws IOException if the body cannot be decoded
+     */
+    private static PageText extract(String baseUri, byte[] body, String charset, boolean streaming)
+            throws IOException {
+        if (streaming)
+            return HtmlScanner.scan(baseUri, body, charset);
+        return extract(Jsoup.parse(new ByteArrayInputStream(body), charset, baseUri));
+    }
+
+    /**
+     * Extracts the text of the targeted elements, as well as the hyperlinks, from a parsed Web page
+     *
+     * @param doc the parsed Web page
+     * @return the text and hyperlinks of the page
+     */
+    private static PageText extract(Document doc) {
+        final List<String> blocks = new ArrayList<String>();
         for (Element e : doc.select("h1,h2,h3,h4,h5,p,dt,dd")) {
-            if (matchPattern.matcher(e.text()).find())
-                matches.add(e.text());
+            blocks.add(e.text());
         }
         // Search for the hypertext links in the page
-        final List<String> hrefs = new LinkedList<String>();
+        final List<String> hrefs = new ArrayList<String>();
         for (Element e : doc.select("a[href]")) {
             hrefs.add(e.attr("abs:href").split("#")[0]);
         }
+        return new PageText(blocks, hrefs);
+    }
+
+    /**
+     * Researches expressions matching the pattern in the text of a Web page
+     *
+     * @param address the URL of the Web page
+     * @param text    the text and hyperlinks of the page
+     * @return a representation of the Web page, including its matching expressions and hyperlinks
+     */
+    private static ParsedPage page(final String address, PageText text) {
+        final List<String> matches = new LinkedList<String>();
+        final List<int[]> offsets = new LinkedList<int[]>();
+        for (String block : text.blocks) {
+            int[] found = blockMatcher.find(block);
+            if (found != null) {
+                matches.add(block);
+                offsets.add(found);
+            }
+        }
+        return page(address, matches, offsets, text.hrefs);
+    }
+
+    /**
+     * Creates the representation of a Web page
+     *
+     * @param address the URL of the Web page
+     * @param matches the text of its elements matching the pattern
+     * @param offsets the offsets of the matching expressions in each of these texts
+     * @param hrefs   the URLs of its hyperlinks
+     * @return a representation of the Web page
+     */
+    private static ParsedPage page(final String address, final List<String> matches, final List<int[]> offsets,
+                                   final List<String> hrefs) {
         return new ParsedPage() {
             public String address() {
                 return address;
@@ -184,9 +664,23 @@ public final class Tools {
             public List<String> hrefs() {
                 return hrefs;
             }
+
+            public List<int[]> matchOffsets() {
+                return offsets;
+            }
         };
     }
 
+    /**
+     * Keeps only what print() needs from a Web page, so that its hyperlinks are released while it waits to be printed
+     *
+     * @param p the parsed page
+     * @return the page with the same address, matches and offsets, and no hyperlink
+     */
+    public static ParsedPage printable(ParsedPage p) {
+        return page(p.address(), p.matches(), p.matchOffsets(), List.of());
+    }
+
     /**
      * Outputs the matches found in the given Web page, according to the options
      * passed at initialization
@@ -204,20 +698,22 @@ public final class Tools {
                 System.out.print(p.matches().size() + "\n");
             // Print the list of matches
             if (!filesWithMatches) {
+                Iterator<int[]> offsets = p.matchOffsets() == null ? null : p.matchOffsets().iterator();
                 for (String s : p.matches()) {
-                    Matcher m = matchPattern.matcher(s);
-                    while (m.find()) {
+                    // The pages parsed by Tools come with their offsets, the matches are only searched again for others
+                    int[] found = offsets != null ? offsets.next() : blockMatcher.find(s);
+                    for (int i = 0; found != null && i < found.length; i += 2) {
                         if (initialTab)
                             System.out.print("\t");
                         if (!onlyMatching)
-                            System.out.print(s.substring(0, m.start(0)));
+                            System.out.print(s.substring(0, found[i]));
                         if (emphasize)
                             System.out.print("\033[0;31m");
-                        System.out.print(m.group(0));
+                        System.out.print(s.substring(found[i], found[i + 1]));
                         if (emphasize)
                             System.out.print("\u001B[0m");
                         if (!onlyMatching)
-                            System.out.print(s.substring(m.end(0)));
+                            System.out.print(s.substring(found[i + 1]));
                     }
                     System.out.println();
                 }
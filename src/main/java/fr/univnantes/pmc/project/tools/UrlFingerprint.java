@@ -0,0 +1,110 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Reduces a URL to 64 bits, so that the pages already explored can be remembered in a LongHashSet instead of a set of
+ * strings.
+ * <p>
+ * The URL is first normalized, so that the different ways of writing the address of a same page give the same
+ * fingerprint: the scheme and the host are lower-cased, the default port is removed, the path is resolved and is at
+ * least "/", the hexadecimal digits of the escaped characters are upper-cased, the parameters of the query are sorted,
+ * and the fragment is removed. The URLs that java.net.URI cannot parse are kept as they are.
+ * <p>
+ * The normalized URL is then hashed with FNV-1a on 64 bits, whose bits are mixed once more. Two URLs of a crawl of a
+ * million pages have about one chance in thirty million to collide, in which case the second page is not explored.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+public final class UrlFingerprint {
+
+    private UrlFingerprint() {
+    }
+
+    /**
+     * Gets the fingerprint of a URL
+     *
+     * @param address the URL
+     * @return the 64 bits hash of the normalized URL
+     */
+    public static long of(String address) {
+        String normalized = normalize(address);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalized.length(); i++) {
+            hash ^= normalized.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        // FNV spreads the last characters poorly over the high bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Normalizes a URL
+     *
+     * @param address the URL
+     * @return the normalized URL, or the URL itself if it cannot be parsed
+     */
+    public static String normalize(String address) {
+        URI uri;
+        try {
+            uri = new URI(address);
+        } catch (URISyntaxException e) {
+            return address;
+        }
+        if (uri.isOpaque() || uri.getScheme() == null)
+            return address;
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        StringBuilder normalized = new StringBuilder(address.length()).append(scheme).append(':');
+        if (uri.getRawAuthority() != null) {
+            normalized.append("//");
+            if (uri.getHost() == null) {
+                // A registry-based authority, such as a host name with an underscore
+                normalized.append(uri.getRawAuthority().toLowerCase(Locale.ROOT));
+            } else {
+                if (uri.getRawUserInfo() != null)
+                    normalized.append(uri.getRawUserInfo()).append('@');
+                normalized.append(uri.getHost().toLowerCase(Locale.ROOT));
+                int port = uri.getPort();
+                if (port >= 0 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https")))
+                    normalized.append(':').append(port);
+            }
+        }
+        String path = uri.normalize().getRawPath();
+        normalized.append(upperCaseEscapes(path == null || path.isEmpty() ? "/" : path));
+        String query = uri.getRawQuery();
+        if (query != null) {
+            String[] parameters = upperCaseEscapes(query).split("&");
+            Arrays.sort(parameters);
+            normalized.append('?').append(String.join("&", parameters));
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Upper-cases the hexadecimal digits of the escaped characters, as in %2f
+     *
+     * @param s a part of a URL
+     * @return the part with %2F instead of %2f
+     */
+    private static String upperCaseEscapes(String s) {
+        int escape = s.indexOf('%');
+        if (escape < 0)
+            return s;
+        char[] chars = s.toCharArray();
+        for (int i = escape; i < chars.length - 2; i++) {
+            if (chars[i] == '%') {
+                chars[i + 1] = Character.toUpperCase(chars[i + 1]);
+                chars[i + 2] = Character.toUpperCase(chars[i + 2]);
+                i += 2;
+            }
+        }
+        return new String(chars);
+    }
+}
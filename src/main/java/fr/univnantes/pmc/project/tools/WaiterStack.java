@@ -0,0 +1,137 @@
+package fr.univnantes.pmc.project.tools;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The consumers parked in take() or poll() of a lock-free queue, kept in a Treiber stack.
+ * <p>
+ * The stack is empty most of the time, so a producer only pays a single read to learn that nobody has to be woken.
+ *
+ * @author Quentin GOMES DOS REIS
+ * @author Matthéo LÉCRIVAIN
+ */
+final class WaiterStack {
+
+    private final AtomicReference<Waiter> waiters = new AtomicReference<>(null);
+
+    /**
+     * Wakes a consumer if any is waiting, called by the producers after each successful enqueue
+     */
+    void signalIfWaiting() {
+        // A single read when nobody waits
+        if (waiters.get() != null)
+            signal();
+    }
+
+    /**
+     * Dequeues a value, parking the current thread while the queue is empty
+     *
+     * @param queue    the queue to dequeue from
+     * @param timed    true if the wait is bounded
+     * @param deadline the end of the wait if it is bounded, as given by System.nanoTime()
+     * @param <T>      the type of the values
+     * @return the oldest value, or null if the deadline was reached
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    <T> T await(ConcurrentQueue<T> queue, boolean timed, long deadline) throws InterruptedException {
+        T value = queue.dequeue();
+        if (value != null)
+            return value;
+
+        Waiter waiter = null;
+        while (true) {
+            if (Thread.interrupted()) {
+                cancel(waiter, queue);
+                throw new InterruptedException();
+            }
+            if (waiter == null || waiter.state.get() != Waiter.WAITING) {
+                // The first wait, or the previous signal went to a value taken by another consumer
+                waiter = new Waiter(Thread.currentThread());
+                push(waiter);
+            }
+            // Checked after the registration: either the producer sees the waiter, or this thread sees the value
+            value = queue.dequeue();
+            if (value != null) {
+                cancel(waiter, queue);
+                return value;
+            }
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    cancel(waiter, queue);
+                    return null;
+                }
+                LockSupport.parkNanos(queue, remaining);
+            } else {
+                LockSupport.park(queue);
+            }
+        }
+    }
+
+    /**
+     * Pushes a waiter on the stack, dropping the cancelled waiters found on top of it first
+     *
+     * @param waiter the waiter to push
+     */
+    private void push(Waiter waiter) {
+        while (true) {
+            Waiter top = waiters.get();
+            if (top != null && top.state.get() == Waiter.CANCELLED) {
+                waiters.compareAndSet(top, top.next);
+                continue;
+            }
+            waiter.next = top;
+            if (waiters.compareAndSet(top, waiter))
+                return;
+        }
+    }
+
+    /**
+     * Withdraws a waiter that stops waiting. If it was signalled meanwhile, the signal is passed on, so that
+     * another consumer takes the value it was meant for.
+     *
+     * @param waiter the waiter, possibly null
+     * @param queue  the queue the waiter was waiting on
+     */
+    private void cancel(Waiter waiter, ConcurrentQueue<?> queue) {
+        if (waiter == null)
+            return;
+        if (!waiter.state.compareAndSet(Waiter.WAITING, Waiter.CANCELLED) && !queue.isEmpty())
+            signal();
+    }
+
+    /**
+     * Unparks the most recent consumer still waiting, if any
+     */
+    private void signal() {
+        Waiter waiter;
+        while ((waiter = waiters.get()) != null) {
+            if (waiters.compareAndSet(waiter, waiter.next)) {
+                waiter.next = null;
+                if (waiter.state.compareAndSet(Waiter.WAITING, Waiter.SIGNALLED)) {
+                    LockSupport.unpark(waiter.thread);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A consumer parked until a value is enqueued
+     */
+    private static class Waiter {
+        static final int WAITING = 0;
+        static final int SIGNALLED = 1;
+        static final int CANCELLED = 2;
+
+        final Thread thread;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        Waiter next = null;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}